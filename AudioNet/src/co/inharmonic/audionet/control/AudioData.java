@@ -6,7 +6,8 @@ import java.util.Arrays;
 import co.inharmonic.audionet.audiotools.StdAudio;
 import co.inharmonic.audionet.neuralnet.NeuralNet;
 import co.inharmonic.audionet.neuralnet.TrainingData;
-import co.inharmonic.audionet.tools.MatrixOps;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixOps;
 
 /**
  * This is used to generate training and test data from an audio file, 
@@ -55,11 +56,22 @@ public class AudioData {
 	 * @param outputs the array of outputs to be turned into an audiofile
 	 */
 	public void outputAudioFile(String filename, double[][] outputs, boolean needsTransposing) {
+		outputAudioFile(filename, Matrix.fromArray(outputs), needsTransposing);
+	}
+	
+	/**
+	 * this only works with a single output, if more than one it constructs 
+	 * an audio file just from the first row (or first column if transposing)
+	 * @param filename the filename the audio should be saved as, e.g. "audio/violin.wav"
+	 * @param outputs the matrix of outputs to be turned into an audiofile
+	 */
+	public void outputAudioFile(String filename, Matrix outputs, boolean needsTransposing) {
 		if (needsTransposing) {
-			StdAudio.save(filename, MatrixOps.transpose(outputs)[0]);
+			// the first column is all that's used, so take it straight out rather than transposing
+			StdAudio.save(filename, outputs.getColumn(0));
 		}
 		else {
-			StdAudio.save(filename, outputs[0]);
+			StdAudio.save(filename, outputs.getRow(0));
 		}
 		System.out.println("file saved as \"" + filename + "\"");
 	}
@@ -177,21 +189,19 @@ public class AudioData {
 	 * @param startSample
 	 * @param outputLength
 	 */
-	public double[][] hallucinateSingle(NeuralNet net, String filename, int sampleStart, int outputLength, int inputNodes) {
-		double[][] output = new double[outputLength][1]; // added to every cycle
-		double[][] input = new double[1][];
-		input[0] = Arrays.copyOfRange(StdAudio.read(filename), sampleStart, sampleStart + inputNodes);; // modified every cycle
-		
-		input[0] = MatrixOps.normalise(input[0], -1.0, 1.0);
+	public Matrix hallucinateSingle(NeuralNet net, String filename, int sampleStart, int outputLength, int inputNodes) {
+		Matrix output = new Matrix(outputLength, 1); // added to every cycle
+		// modified every cycle
+		double[] inputData = MatrixOps.normalise(
+				Arrays.copyOfRange(StdAudio.read(filename), sampleStart, sampleStart + inputNodes), -1.0, 1.0);
+		double[] netOutput = new double[net.getOutputSize()];
 		
-		for (int i = 0; i < output.length; i++) {
-			output[i][0] = net.runData(input)[0][0];
+		for (int i = 0; i < output.getRows(); i++) {
+			output.set(i, 0, net.runData(inputData, netOutput)[0]);
 			
 			// shuffle input and add the new output
-			for (int j = 0; j < inputNodes - 1; j++) {
-				input[0][j] = input[0][j + 1];
-			}
-			input[0][inputNodes - 1] = output[i][0];
+			System.arraycopy(inputData, 1, inputData, 0, inputNodes - 1);
+			inputData[inputNodes - 1] = output.get(i, 0);
 		}
 		return output;		
 	}
@@ -205,19 +215,23 @@ public class AudioData {
 	 * @param inputNodes
 	 * @return
 	 */
-	public double[][] hallucinateMultiple(NeuralNet net, String filename, int sampleStart, int outputLength, int inputNodes) {
+	public Matrix hallucinateMultiple(NeuralNet net, String filename, int sampleStart, int outputLength, int inputNodes) {
 		int iterations = outputLength / inputNodes;
-		double[][] output = new double[iterations * inputNodes][1]; // added to every cycle
-		double[][] input = new double[1][];
-		input[0] = Arrays.copyOfRange(StdAudio.read(filename), sampleStart, sampleStart + inputNodes);; // modified every cycle
-		input[0] = MatrixOps.normalise(input[0], -1.0, 1.0);
+		Matrix output = new Matrix(iterations * inputNodes, 1); // added to every cycle
+		// modified every cycle
+		double[] input = MatrixOps.normalise(
+				Arrays.copyOfRange(StdAudio.read(filename), sampleStart, sampleStart + inputNodes), -1.0, 1.0);
+		double[] next = new double[inputNodes];
 		
 		System.out.println("hallucinating...");
 		for (int i = 0; i < iterations; i++) {
-			for (int j = 0; j < inputNodes; j++) {
-				output[(i * inputNodes) + j][0] = input[0][j];
-			}
-			input[0] = net.runData(input)[0];
+			// output is a single column so its rows follow on from each other
+			System.arraycopy(input, 0, output.getData(), i * inputNodes, inputNodes);
+			net.runData(input, next);
+			// swap the buffers rather than allocating a new one
+			double[] previous = input;
+			input = next;
+			next = previous;
 		}
 		System.out.println("done hallucinating");
 		return output;		
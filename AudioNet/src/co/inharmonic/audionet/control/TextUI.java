@@ -2,8 +2,11 @@ package co.inharmonic.audionet.control;
 
 import co.inharmonic.audionet.neuralnet.NeuralNet;
 import co.inharmonic.audionet.neuralnet.TrainingData;
-import co.inharmonic.audionet.tools.MatrixOps;
 import co.inharmonic.audionet.tools.Serializer;
+import co.inharmonic.netcore.neuralnet.Activation;
+import co.inharmonic.netcore.neuralnet.Optimizer;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixOps;
 
 public class TextUI {
 	int inputNodes;
@@ -12,6 +15,17 @@ public class TextUI {
 	
 	double trainingRate;
 	int trainingCycles;
+	double targetLoss;
+	int plateauPatience;
+	double plateauImprovement;
+	long timeBudget;
+	int batchSize;
+	int trainingThreads;
+	boolean isHogwild;
+	Optimizer optimizer;
+	boolean isFastSigmoid;
+	Activation hiddenActivation;
+	Activation outputActivation;
 	double minRandomWeight;
 	double maxRandomWeight;
 	double maxInput;
@@ -42,6 +56,15 @@ public class TextUI {
 			// create the ANN
 			net = new NeuralNet(hiddenNodes, trainingRate, trainingCycles,
 					minRandomWeight, maxRandomWeight);
+			net.setBatchSize(batchSize);
+			net.setTrainingThreads(trainingThreads);
+			net.setHogwild(isHogwild);
+			net.setOptimizer(optimizer);
+			net.setTargetLoss(targetLoss);
+			net.setPlateau(plateauPatience, plateauImprovement);
+			net.setTimeBudget(timeBudget);
+			net.setFastSigmoid(isFastSigmoid);
+			net.setActivations(hiddenActivation, outputActivation);
 
 			// give the training data to the net
 			setTrainingData();
@@ -76,6 +99,42 @@ public class TextUI {
 		// The number of times the backpropagation algorithm is used
 		trainingCycles = 70000;
 		
+		// Stop before trainingCycles if the average accuracy gets down to targetLoss, if
+		// it doesn't improve by plateauImprovement (a fraction) for plateauPatience cycles,
+		// or after timeBudget milliseconds. 0 turns each of them off
+		targetLoss = 0.0;
+		plateauPatience = 0;
+		plateauImprovement = 0.001;
+		timeBudget = 0;
+		
+		// The rows of training data per weight update, 0 uses all of them each cycle.
+		// With mini-batches trainingCycles counts passes through the data, so it can be
+		// much lower, and the training rate can be higher (e.g. 32 rows at 0.3)
+		batchSize = 0;
+		
+		// The threads a full batch is split across, e.g. Runtime.getRuntime().availableProcessors().
+		// The weights come out the same every time for the same number, but change a
+		// little if it is changed, so 1 trains the same on any machine
+		trainingThreads = 1;
+		
+		// With mini-batches, train them on all the threads at once without locks.
+		// Quicker with many cores, but the weights change from run to run
+		isHogwild = false;
+		
+		// How the weights are moved each update, null for training rate * changes.
+		// e.g. new AdamOptimizer() gets there in far fewer cycles, with a rate of about 0.03
+		optimizer = null;
+		
+		// Read the sigmoid from a table rather than working it out, within 3e-6 of it.
+		// Quicker for training and running, the net comes out very slightly different
+		isFastSigmoid = false;
+		
+		// The activation function of the hidden and output layers. RELU and LEAKY_RELU are
+		// much cheaper than SIGMOID for the hidden layer. The outputs are from 0 to 1 so
+		// want SIGMOID or HARD_SIGMOID. A loaded net keeps the ones it was trained with
+		hiddenActivation = Activation.SIGMOID;
+		outputActivation = Activation.SIGMOID;
+		
 		// The spread of initial random weights
 		minRandomWeight = -0.5;
 		maxRandomWeight = 0.5;
@@ -115,7 +174,7 @@ public class TextUI {
 	
 	private void showTrainingResults() {
 		System.out.println("Saving training results to file:");
-		double[][] outputData = net.runData(trainingData.getTrainingInput());
+		Matrix outputData = net.runData(trainingData.getTrainingInputMatrix());
 
 		outputResults(outputData, trainingFileOutput, true);
 	}
@@ -134,7 +193,7 @@ public class TextUI {
 		outputResults(data, "audio/violinPredictiveViolin03.wav", false);
 */		
 		
-		double[][] outputData =	audioData.hallucinateMultiple(net, "audio/violin.wav", 5000, 100000, inputNodes);
+		Matrix outputData = audioData.hallucinateMultiple(net, "audio/violin.wav", 5000, 100000, inputNodes);
 		outputResults(outputData, "audio/violinHallucinate07.wav", true);
 		
 	}
@@ -145,7 +204,7 @@ public class TextUI {
 	 * @param inputData
 	 * @param outputData
 	 */
-	private void outputResults(double[][] outputData, String filename, boolean needsTransposing) {
+	private void outputResults(Matrix outputData, String filename, boolean needsTransposing) {
 		// convert it back to in the range -1.0 to 1.0 before outputting
 		audioData.outputAudioFile(filename, MatrixOps.deNormalise(outputData, minOutput, maxOutput), needsTransposing);
 	}
@@ -161,5 +220,6 @@ public class TextUI {
 		Serializer serializer = new Serializer();
 		// set the filename
 		net = serializer.deserialzeNet(filename);
+		net.setFastSigmoid(isFastSigmoid);
 	}
 }
@@ -1,32 +1,50 @@
 package co.inharmonic.audionet.neuralnet;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import co.inharmonic.audionet.neuralnet.TrainingData;
-import co.inharmonic.audionet.tools.MatrixOps;
 import co.inharmonic.audionet.tools.Serializer;
+import co.inharmonic.netcore.neuralnet.Activation;
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixOps;
+import co.inharmonic.netcore.tools.OffHeapArena;
 
-public class NeuralNet implements Serializable {
+/**
+ * The audio net, the shared NeuralNetEngine plus the audio TrainingData and saving.
+ * The training and running is all done by NeuralNetEngine.
+ */
+public class NeuralNet extends NeuralNetEngine implements Serializable {
 
 	private static final long serialVersionUID = -17732400872186722L;
 	
-	int hiddenNeurons;
-	double trainingRate; // The rate at which the weight updates each training pass
-	int trainingCycles; // The number of times the backpropagation algorithm is used
-	double minRandomWeight; // The spread of initial random weights
-	double maxRandomWeight;
-	double[][] X; // training input
-	double[][] y; // training output
-	double[][] synapse0; // weights between input layer and hidden
-	double[][] synapse1; // weights between hidden layer and output
-	double[][] layer1; // hidden layer
-	double[][] layer2; // output layer
+	// Saved nets store the matrices as double[][], this keeps that layout in the
+	// file so nets saved before the switch to Matrix can still be loaded.
+	// NeuralNetEngine isn't Serializable, so its fields are written from here.
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("hiddenNeurons", int.class),
+		new ObjectStreamField("trainingRate", double.class),
+		new ObjectStreamField("trainingCycles", int.class),
+		new ObjectStreamField("minRandomWeight", double.class),
+		new ObjectStreamField("maxRandomWeight", double.class),
+		new ObjectStreamField("X", double[][].class),
+		new ObjectStreamField("y", double[][].class),
+		new ObjectStreamField("synapse0", double[][].class),
+		new ObjectStreamField("synapse1", double[][].class),
+		new ObjectStreamField("layer1", double[][].class),
+		new ObjectStreamField("layer2", double[][].class),
+		new ObjectStreamField("precision", Precision.class),
+		new ObjectStreamField("hiddenActivation", Activation.class),
+		new ObjectStreamField("outputActivation", Activation.class)
+	};
 	
 	/**
 	 * Create a new artificial neural net with the parameters given
-	 * @param inputs The number of input nodes in the top layer
 	 * @param hiddenNeurons The number of nodes in the hidden layer
-	 * @param outputNeurons The number of output nodes in the bottom layer
 	 * @param trainingRate The rate at which the weight updates each training pass
 	 * @param trainingCycles The number of times the backpropagation algorithm is used (60k works)
 	 * @param minRandomWeight The spread of initial random weights - Min
@@ -35,223 +53,118 @@ public class NeuralNet implements Serializable {
 	public NeuralNet(int hiddenNeurons, double trainingRate, 
 			int trainingCycles, double minRandomWeight, double maxRandomWeight) {
 		
-		setParameters(hiddenNeurons, trainingRate,
-				trainingCycles, minRandomWeight, maxRandomWeight);
+		super(hiddenNeurons, trainingRate, trainingCycles, minRandomWeight, maxRandomWeight);
 	}
 	
 	/**
-	 * 
-	 * @param inputs The number of input nodes in the top layer
+	 * Create a new artificial neural net with the parameters given
 	 * @param hiddenNeurons The number of nodes in the hidden layer
-	 * @param outputNeurons The number of output nodes in the bottom layer
 	 * @param trainingRate The rate at which the weight updates each training pass
 	 * @param trainingCycles The number of times the backpropagation algorithm is used (60k works)
 	 * @param minRandomWeight The spread of initial random weights - Min
 	 * @param maxRandomWeight The spread of initial random weights - Max
+	 * @param precision whether to train and run the net in double or float
 	 */
-	public void setParameters(int hiddenNeurons,double trainingRate, 
-			int trainingCycles, double minRandomWeight, double maxRandomWeight) {
-		this.hiddenNeurons = hiddenNeurons;
-		this.trainingRate = trainingRate;
-		this.trainingCycles = trainingCycles;
-		this.minRandomWeight = minRandomWeight;
-		this.maxRandomWeight = maxRandomWeight;
+	public NeuralNet(int hiddenNeurons, double trainingRate, 
+			int trainingCycles, double minRandomWeight, double maxRandomWeight, Precision precision) {
+		
+		super(hiddenNeurons, trainingRate, trainingCycles, minRandomWeight, maxRandomWeight, precision);
 	}
 	
 	/**
 	 * pass the training data to the net before calling trainNet()
-	 * This method might need updating when used in different applications,
-	 * TrainingData in this instance is specific to the colours net, should
-	 * be made into an interface in future
 	 * @param trainingData
 	 */
 	public void setTrainingData(TrainingData trainingData) {
 		// normalise the input and outputs
-		this.X = MatrixOps.normalise(trainingData.getTrainingInput(), trainingData.getMaxInput());
-		this.y = MatrixOps.normalise(trainingData.getTrainingOutput(), trainingData.getMaxOutput());
+		setTrainingData(MatrixOps.normalise(trainingData.getTrainingInputMatrix(), trainingData.getMaxInput()),
+				MatrixOps.normalise(trainingData.getTrainingOutputMatrix(), trainingData.getMaxOutput()));
 	}
 	
 	/**
-	 * run this method after inputting the training data to train the net
-	 * @param isNewNet set flag to false if loading older training data to train further
+	 * pass the training data to the net before calling trainNet(), keeping it outside
+	 * the Java heap. Only a block of rows at a time is brought onto the heap while
+	 * training, so the data can be much bigger than the heap. It is always trained
+	 * in double and is not saved with the net.
+	 * @param trainingData
+	 * @param arena holds the data, keep it open until training has finished
 	 */
-	public void trainNet(boolean isNewNet) {
-		System.out.println("Training net - this can take a VERY long time...");
-		long time = System.currentTimeMillis();
-		// only randomise the synapses if the new net tag is true, otherwise it is a continuation of previous training.
-		if (isNewNet) {
-			// Synapses contain the weights for each layer, these are randomised to begin with
-			synapse0 = new double[X[0].length][hiddenNeurons];
-			populateRandom(synapse0, minRandomWeight, maxRandomWeight);
-		
-			synapse1 = new double[hiddenNeurons][y[0].length];
-			populateRandom(synapse1, minRandomWeight, maxRandomWeight);
-		}
-		// The layers are the output values of each layer.
-		// They are initialised to nothing to begin with, created properly in the training loop
-		layer1 = new double[0][0];
-		layer2 = new double[0][0];
-		
-		// The training loop
-		for (int i = 0; i < trainingCycles; i++) {
-			// calculate the values of each layer given the inputs and the weights
-			layer1 = forwardPropogate(X, synapse0);
-			layer2 = forwardPropogate(layer1, synapse1);
-			
-			// Calculate the delta error for each output layer, starting
-			// with the bottom working up.
-			// This is the difference between the expected values and actual values
-			// times the derivative (gradient) of the sigmoid activation function
-			// The 1st error comes from y - output
-			double[][] layer2Delta = MatrixOps.subtract(y, layer2);
-			layer2Delta = delta(layer2Delta, layer2);
-			// subsequent layers come from the delta of the lower layer divided by the weights
-			double[][] layer1Delta = MatrixOps.dot(layer2Delta, MatrixOps.t(synapse1));
-			layer1Delta = delta(layer1Delta, layer1);
-			
-			// Apply the error gradients to each weight, this moves the value closer to the expected
-			// or reduces the error
-			synapse1 = MatrixOps.add(synapse1, MatrixOps.scale(MatrixOps.dot(MatrixOps.t(layer1), layer2Delta), trainingRate));
-			synapse0 = MatrixOps.add(synapse0, MatrixOps.scale(MatrixOps.dot(MatrixOps.t(X), layer1Delta), trainingRate));
-			
-			// timer
-			if (i == 10 || i % 100 == 0) {
-				printElapsedTime(i + 1, System.currentTimeMillis() - time);
-				// accuracy check
-				double accuracy = 0.0;
-				for (int j = 0; j < y.length; j++) {
-					for (int k = 0; k < y[0].length; k++) {
-						accuracy += Math.abs(y[j][k] - layer2[j][k]);
-					}
-				}
-				accuracy = accuracy / (y.length * y[0].length);
-				System.out.println("Average accuracy (lower is better) = " + accuracy);
-			}
-			// backup saves
-			if (i % 10000 == 9999) {
-				saveNet("" + i);
-			}
-			
-		}
-		// Run the input matrix through the net to get outputs for each training value on layer 2
-		double[][] testNet = runData(X);
-		// Show the results
-		MatrixOps.printMatrix("Output for X after training:", testNet);
-		MatrixOps.printMatrixInts("Output for X after training (out of 100:", testNet);
-		System.out.println("Net trained");
+	public void setTrainingData(TrainingData trainingData, OffHeapArena arena) {
+		setTrainingData(MatrixOps.normalise(trainingData.getTrainingInputOffHeap(arena), trainingData.getMaxInput()),
+				MatrixOps.normalise(trainingData.getTrainingOutputOffHeap(arena), trainingData.getMaxOutput()));
 	}
 	
-	private void printElapsedTime(int iteration, long timeElapsed) {
-		long timeLeft = ((timeElapsed / iteration) * trainingCycles) - timeElapsed;
-		System.out.println(iteration + "/" + trainingCycles + " loops done in " 
-				+ (timeElapsed / (1000 * 60 * 60)) + "hours, " 
-				+ ((timeElapsed / (1000 * 60)) % 60) + "minutes, " 
-				+ ((timeElapsed / 1000) % 60) + "seconds. "
-				+ "Estimated time to finish: " +  
-				+ (timeLeft / (1000 * 60 * 60)) + "hours, " 
-				+ ((timeLeft / (1000 * 60)) % 60) + "minutes, " 
-				+ ((timeLeft / 1000) % 60) + "seconds.");
+	@Override
+	protected void saveBackup(int iteration) {
+		saveNet("" + iteration);
 	}
 	
 	/**
-	 * uses the trained neural net to return an output for given input data
-	 * @param inputs
+	 * saves this neural net, call occasionally while training for backup
+	 * @param tag
 	 */
-	public double[][] runData(double[][] inputs) {
-		layer1 = forwardPropogate(inputs, synapse0);
-		layer2 = forwardPropogate(layer1, synapse1);
-		
-		return layer2.clone();
+	private void saveNet(String tag) {
+		Serializer serializer = new Serializer();
+		// set the filename
+		String filename = "nets/ANN_" + synapse0.getRows() + "_" + hiddenNeurons + "_" + synapse1.getCols() + "_" + "at_iteration_" + tag;
+		serializer.serializeNet(this, filename);
 	}
 	
-	// Helper methods *************************************************************
-	
-	/**
-	 * calculates the values of a layer given the inputs and the weights
-	 * @param inputs
-	 * @param weights
-	 * @return
-	 */
-	private double[][] forwardPropogate(double[][] inputs, double[][] weights) {
-		double[][] resultLayer = MatrixOps.dot(inputs, weights);
-		sigmoid(resultLayer);
-		return resultLayer;
+	// Serialization **************************************************************
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("hiddenNeurons", hiddenNeurons);
+		fields.put("trainingRate", trainingRate);
+		fields.put("trainingCycles", trainingCycles);
+		fields.put("minRandomWeight", minRandomWeight);
+		fields.put("maxRandomWeight", maxRandomWeight);
+		fields.put("X", toArray(X));
+		fields.put("y", toArray(y));
+		fields.put("synapse0", toArray(synapse0));
+		fields.put("synapse1", toArray(synapse1));
+		fields.put("layer1", toArray(layer1));
+		fields.put("layer2", toArray(layer2));
+		fields.put("precision", precision);
+		fields.put("hiddenActivation", hiddenActivation);
+		fields.put("outputActivation", outputActivation);
+		out.writeFields();
 	}
 	
-	/**
-	 * applies the sigmoid function to all elements in an matrix
-	 * Input matrix is changed.
-	 * @param array
-	 */
-	private void sigmoid(double[][] matrix) {
-		// Sigmoid function:
-		// = 1/(1+e^(-(inputs.weights)))
-		for (int i = 0; i < matrix.length; i++) {
-			for (int j = 0; j < matrix[0].length; j++) {
-				matrix[i][j] = 1.0 / (1.0 + Math.exp(-matrix[i][j]));
-			}
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		hiddenNeurons = fields.get("hiddenNeurons", 0);
+		trainingRate = fields.get("trainingRate", 0.0);
+		trainingCycles = fields.get("trainingCycles", 0);
+		minRandomWeight = fields.get("minRandomWeight", 0.0);
+		maxRandomWeight = fields.get("maxRandomWeight", 0.0);
+		X = toMatrix((double[][]) fields.get("X", null));
+		y = toMatrix((double[][]) fields.get("y", null));
+		synapse0 = toMatrix((double[][]) fields.get("synapse0", null));
+		synapse1 = toMatrix((double[][]) fields.get("synapse1", null));
+		layer1 = toMatrix((double[][]) fields.get("layer1", null));
+		layer2 = toMatrix((double[][]) fields.get("layer2", null));
+		// nets saved before there was a float mode are double
+		precision = (Precision) fields.get("precision", Precision.DOUBLE);
+		if (precision == null) {
+			precision = Precision.DOUBLE;
 		}
-	}
-	
-	/**
-	 * populates the matrix with all random numbers from min to max
-	 * @param matrix
-	 */
-	private void populateRandom(double[][] matrix, double min, double max) {
-		double range = max - min;
-		for (int i = 0; i < matrix.length; i++) {
-			for (int j = 0; j < matrix[0].length; j++) {
-				matrix[i][j] = (range * Math.random()) + min;
-			}
+		// and nets saved before the activations could be chosen use the sigmoid
+		hiddenActivation = (Activation) fields.get("hiddenActivation", Activation.SIGMOID);
+		outputActivation = (Activation) fields.get("outputActivation", Activation.SIGMOID);
+		if (hiddenActivation == null) {
+			hiddenActivation = Activation.SIGMOID;
 		}
-	}
-	
-	/**
-	 * use to calculate the delta error for a layer
-	 * @param error
-	 * @param layer
-	 * @return
-	 */
-	private double[][] delta(double[][] error, double[][] layer) {
-		double[][] delta = new double[error.length][error[0].length];
-		for (int j = 0; j < error.length; j++) {
-			for (int k = 0; k < error[0].length; k++) {
-				delta[j][k] = error[j][k] * (layer[j][k] * (1.0 - layer[j][k]));
-			}
+		if (outputActivation == null) {
+			outputActivation = Activation.SIGMOID;
 		}
-		return delta;
 	}
 	
-	/**
-	 * prints the tag followed by the matrix
-	 * @param tag
-	 * @param matrix
-	 */
-	public void printMatrix(String tag, double[][] matrix) {
-		MatrixOps.printMatrix(tag, matrix);
+	private static double[][] toArray(Matrix matrix) {
+		return matrix == null ? null : matrix.toArray();
 	}
 	
-	/**
-	 * prints the tag followed by the matrix as a more readable integer out of 100
-	 * @param tag
-	 * @param matrix
-	 */
-	public void printMatrixInts(String tag, double[][] matrix) {
-		MatrixOps.printMatrixInts(tag, matrix);
-	}
-	
-	public void printOutputLayerWeights() {
-		MatrixOps.printMatrix(synapse1);
-	}
-	
-	/**
-	 * saves this neural net, call occasionally while training for backup
-	 * @param tag
-	 */
-	private void saveNet(String tag) {
-		Serializer serializer = new Serializer();
-		// set the filename
-		String filename = "nets/ANN_" + X[0].length + "_" + hiddenNeurons + "_" + y[0].length + "_" + "at_iteration_" + tag;
-		serializer.serializeNet(this, filename);
+	private static Matrix toMatrix(double[][] array) {
+		return array == null ? null : Matrix.fromArray(array);
 	}
 }
@@ -2,7 +2,10 @@ package co.inharmonic.audionet.neuralnet;
 
 import java.util.ArrayList;
 
-import co.inharmonic.audionet.tools.MatrixOps;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixOps;
+import co.inharmonic.netcore.tools.OffHeapArena;
+import co.inharmonic.netcore.tools.OffHeapMatrix;
 
 public class TrainingData  {
 
@@ -72,6 +75,56 @@ public class TrainingData  {
 		return output;
 	}
 
+	/**
+	 * gets the training data input X as a single flat matrix
+	 * @return a matrix, X, with one row per set of training data
+	 */
+	public Matrix getTrainingInputMatrix() {
+		return toMatrix(trainingInput, inputSize);
+	}
+	
+	/**
+	 * gets the training data output y as a single flat matrix
+	 * @return a matrix, y, with one row per set of training data
+	 */
+	public Matrix getTrainingOutputMatrix() {
+		return toMatrix(trainingOutput, outputSize);
+	}
+	
+	/**
+	 * copies the training data input X into a matrix outside the Java heap
+	 * @param arena frees the matrix when it is closed
+	 * @return a matrix, X, with one row per set of training data
+	 */
+	public OffHeapMatrix getTrainingInputOffHeap(OffHeapArena arena) {
+		return toOffHeap(trainingInput, inputSize, arena);
+	}
+	
+	/**
+	 * copies the training data output y into a matrix outside the Java heap
+	 * @param arena frees the matrix when it is closed
+	 * @return a matrix, y, with one row per set of training data
+	 */
+	public OffHeapMatrix getTrainingOutputOffHeap(OffHeapArena arena) {
+		return toOffHeap(trainingOutput, outputSize, arena);
+	}
+	
+	private OffHeapMatrix toOffHeap(ArrayList<double[]> rows, int size, OffHeapArena arena) {
+		OffHeapMatrix matrix = arena.allocate(rows.size(), size);
+		for (int i = 0; i < rows.size(); i++) {
+			matrix.setRow(i, rows.get(i));
+		}
+		return matrix;
+	}
+	
+	private Matrix toMatrix(ArrayList<double[]> rows, int size) {
+		Matrix matrix = new Matrix(rows.size(), size);
+		for (int i = 0; i < rows.size(); i++) {
+			matrix.setRow(i, rows.get(i));
+		}
+		return matrix;
+	}
+
 	/**
 	 * returns an array of ints showing the percent certainty of each position in the outputData array
 	 * @param outputData
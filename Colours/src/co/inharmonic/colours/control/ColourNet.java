@@ -4,6 +4,7 @@ import co.inharmonic.colours.control.TrainingData.brightness;
 import co.inharmonic.colours.control.TrainingData.colour;
 import co.inharmonic.colours.control.TrainingData.saturation;
 import co.inharmonic.colours.net.NeuralNet;
+import co.inharmonic.netcore.neuralnet.Activation;
 
 public class ColourNet {
 	int hiddenNeurons;
@@ -11,6 +12,8 @@ public class ColourNet {
 	int trainingCycles;
 	double minRandomWeight;
 	double maxRandomWeight;
+	Activation hiddenActivation;
+	Activation outputActivation;
 	NeuralNet net;
 	// Training data; input X and output y.
 	// * For each input there should be an expected output value
@@ -35,9 +38,14 @@ public class ColourNet {
 		// The spread of initial random weights
 		minRandomWeight = -0.5;
 		maxRandomWeight = 0.5;
+		// The activation functions of the hidden and output layers, the outputs
+		// are from 0 to 1 so need SIGMOID or HARD_SIGMOID
+		hiddenActivation = Activation.SIGMOID;
+		outputActivation = Activation.SIGMOID;
 
 		net = new NeuralNet(hiddenNeurons, trainingRate,
 				trainingCycles, minRandomWeight, maxRandomWeight);
+		net.setActivations(hiddenActivation, outputActivation);
 
 		setTrainingData();
 
@@ -0,0 +1,72 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * Adam (Kingma and Ba 2014): each weight keeps running averages of its changes and of
+ * their squares, both corrected for starting at 0.0, and moves by
+ * rate * average / (sqrt(average of squares) + epsilon). That's RMSProp with momentum.
+ * The rate wants to be much smaller than for plain gradient descent, e.g. 0.001.
+ */
+public class AdamOptimizer implements Optimizer {
+	private final double beta1;
+	private final double beta2;
+	private final double epsilon;
+	private final OptimizerState state = new OptimizerState(2);
+
+	/**
+	 * beta1 0.9, beta2 0.999, epsilon 1e-8, from the paper
+	 */
+	public AdamOptimizer() {
+		this(0.9, 0.999, 1e-8);
+	}
+
+	/**
+	 * @param beta1 how much of the average change is kept each step, from 0.0 to below 1.0
+	 * @param beta2 how much of the average squared change is kept each step, from 0.0 to below 1.0
+	 * @param epsilon added to the root of the average of squares so it can't divide by 0
+	 */
+	public AdamOptimizer(double beta1, double beta2, double epsilon) {
+		if (beta1 < 0.0 || beta1 >= 1.0 || beta2 < 0.0 || beta2 >= 1.0 || !(epsilon > 0.0)) {
+			throw new IllegalArgumentException("Adam needs betas from 0 to below 1 and a positive epsilon: "
+					+ beta1 + ", " + beta2 + ", " + epsilon);
+		}
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	public void update(int slot, Matrix weights, Matrix change, double rate) {
+		int rows = weights.getRows();
+		int cols = weights.getCols();
+		double[] average = state.get(slot, 0, rows * cols);
+		double[] squares = state.get(slot, 1, rows * cols);
+		int step = state.step(slot);
+		// the bias corrections folded into the rate and epsilon
+		double correction1 = 1.0 - Math.pow(beta1, step);
+		double root2 = Math.sqrt(1.0 - Math.pow(beta2, step));
+		double stepRate = rate * root2 / correction1;
+		double stepEpsilon = epsilon * root2;
+		double[] w = weights.getData();
+		double[] g = change.getData();
+		for (int i = 0; i < rows; i++) {
+			int wRow = weights.getOffset() + i * weights.getStride();
+			int gRow = change.getOffset() + i * change.getStride();
+			int sRow = i * cols;
+			for (int j = 0; j < cols; j++) {
+				double gradient = g[gRow + j];
+				double m = beta1 * average[sRow + j] + (1.0 - beta1) * gradient;
+				double v = beta2 * squares[sRow + j] + (1.0 - beta2) * gradient * gradient;
+				average[sRow + j] = m;
+				squares[sRow + j] = v;
+				w[wRow + j] += stepRate * m / (Math.sqrt(v) + stepEpsilon);
+			}
+		}
+	}
+
+	@Override
+	public void reset() {
+		state.clear();
+	}
+}
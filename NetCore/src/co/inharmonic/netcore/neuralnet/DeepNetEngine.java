@@ -0,0 +1,636 @@
+package co.inharmonic.netcore.neuralnet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine.StopReason;
+import co.inharmonic.netcore.tools.FastSigmoid;
+import co.inharmonic.netcore.tools.FastSigmoidBackend;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixBackend;
+import co.inharmonic.netcore.tools.MatrixBackends;
+import co.inharmonic.netcore.tools.MatrixOps;
+
+/**
+ * A neural net with any number of layers, given as the number of neurons in each, e.g.
+ * {30, 60, 40, 30} for 30 inputs, hidden layers of 60 and 40 and 30 outputs. Like
+ * NeuralNetEngine it has no biases (give the inputs a column of 1.0 for those), the
+ * hidden layers all have the same activation and the output layer has its own, and it
+ * is trained by backpropagation on all of the data each cycle or in mini-batches.
+ *
+ * Every weight is kept in one double[], a layer after another, and each layer's weights
+ * are a Matrix view of their part of it. The weight changes are kept the same way in
+ * the LayerWorkspace. So a step's update, with or without an Optimizer, is one sweep
+ * along the whole array however many layers there are, the shards' changes are added up
+ * with one sweep each, and getWeights() and setWeights() copy the whole net at once to
+ * save or restore it.
+ *
+ * With the shape {inputs, hidden, outputs} it is the same net as NeuralNetEngine's.
+ * From the same weights, full batch training on one thread gives the same weights bit
+ * for bit. The training loop, early stopping and progress are TrainingLoop's, shared
+ * with NeuralNetEngine.
+ *
+ * It always trains in double with the backend. Float, sparse and off-heap training data,
+ * Strassen, fused cycles and Hogwild are only in NeuralNetEngine. NeuralNet01's net also
+ * takes a shape array, but it is a separate prototype that doesn't use NetCore and is
+ * left as it is.
+ */
+public class DeepNetEngine {
+	protected final int[] shapeOfNet; // the neurons in each layer, inputs first, outputs last
+	protected double trainingRate; // The rate at which the weight updates each training pass
+	protected int trainingCycles; // The number of times the backpropagation algorithm is used
+	protected double minRandomWeight; // The spread of initial random weights
+	protected double maxRandomWeight;
+	protected Matrix X; // training input
+	protected Matrix y; // training output
+	protected Activation hiddenActivation = Activation.SIGMOID;
+	protected Activation outputActivation = Activation.SIGMOID;
+	private final int[] offsets; // where each layer's weights start in parameters, with the total at the end
+	private final double[] parameters; // every weight, a layer after another
+	private final Matrix[] weights; // views of parameters, weights[i] is shapeOfNet[i] x shapeOfNet[i + 1]
+	private final Matrix allWeights; // all of parameters as one row
+	private boolean isTrained; // false until the weights have been randomised or set
+	private double[][] rowBuffers; // the layers for running a single set of inputs, made when first needed
+	private ForkJoinPool pool; // the threads large matrix products are split across
+	private boolean isPoolSet; // if false MatrixOps' default pool is used
+	private MatrixBackend backend; // does the matrix work, see MatrixBackends
+	private boolean isFastSigmoid = false; // use FastSigmoid rather than Math.exp()
+	private MatrixBackend fastSigmoidBackend; // backend with FastSigmoid, made when first needed
+	private int batchSize = 0; // rows per mini-batch, 0 to train on all the data each cycle
+	private int trainingThreads = 1; // shards the full batch rows are split into, each on its own thread
+	private Optimizer optimizer; // moves the weights by the changes, null to add rate * changes
+	private final TrainingLoop loop = new TrainingLoop(); // runs the cycles, stops early and counts the rows trained
+	private LayerWorkspace workspace; // the training buffers, kept between calls to trainNet() while the rows match
+
+	/**
+	 * Create a new artificial neural net with the parameters given
+	 * @param shapeOfNet the neurons in each layer, at least the inputs and the outputs
+	 * @param trainingRate The rate at which the weight updates each training pass
+	 * @param trainingCycles The number of times the backpropagation algorithm is used
+	 * @param minRandomWeight The spread of initial random weights - Min
+	 * @param maxRandomWeight The spread of initial random weights - Max
+	 */
+	public DeepNetEngine(int[] shapeOfNet, double trainingRate,
+			int trainingCycles, double minRandomWeight, double maxRandomWeight) {
+		if (shapeOfNet.length < 2) {
+			throw new IllegalArgumentException("A net needs at least an input and an output layer: "
+					+ shapeOfNet.length + " layers");
+		}
+		this.shapeOfNet = shapeOfNet.clone();
+		offsets = new int[shapeOfNet.length];
+		long total = 0;
+		for (int i = 0; i < shapeOfNet.length; i++) {
+			if (shapeOfNet[i] < 1) {
+				throw new IllegalArgumentException("Layer " + i + " needs at least one neuron: " + shapeOfNet[i]);
+			}
+			offsets[i] = (int) total;
+			if (i + 1 < shapeOfNet.length) {
+				total += (long) shapeOfNet[i] * shapeOfNet[i + 1];
+				if (total > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("Too many weights to keep in one array: " + total);
+				}
+			}
+		}
+		parameters = new double[(int) total];
+		weights = LayerWorkspace.views(parameters, this.shapeOfNet, offsets);
+		allWeights = new Matrix(parameters, 0, 1, parameters.length, parameters.length);
+		this.trainingRate = trainingRate;
+		this.trainingCycles = trainingCycles;
+		this.minRandomWeight = minRandomWeight;
+		this.maxRandomWeight = maxRandomWeight;
+	}
+
+	/**
+	 * @return a copy of the neurons in each layer
+	 */
+	public int[] getShapeOfNet() {
+		return shapeOfNet.clone();
+	}
+
+	/**
+	 * @return the number of weights in the whole net, the length of getWeights()
+	 */
+	public int getWeightCount() {
+		return parameters.length;
+	}
+
+	/**
+	 * a copy of every weight, a layer after another, each layer row by row, for saving
+	 * the net or keeping the best weights so far. It is one copy of one array.
+	 * @return a new array getWeightCount() long
+	 */
+	public double[] getWeights() {
+		return parameters.clone();
+	}
+
+	/**
+	 * replaces every weight, e.g. with the ones from getWeights(), to restore a saved net
+	 * and run it or train it further with trainNet(false)
+	 * @param weights getWeightCount() long, laid out as getWeights()
+	 */
+	public void setWeights(double[] weights) {
+		if (weights.length != parameters.length) {
+			throw new IllegalArgumentException("The net has " + parameters.length + " weights, not "
+					+ weights.length);
+		}
+		System.arraycopy(weights, 0, parameters, 0, parameters.length);
+		isTrained = true;
+	}
+
+	/**
+	 * a view of one layer's weights, changing it changes the net
+	 * @param layer from 0 for the weights from the inputs to the number of layers - 2
+	 * @return shapeOfNet[layer] x shapeOfNet[layer + 1]
+	 */
+	public Matrix getLayerWeights(int layer) {
+		return weights[layer];
+	}
+
+	/**
+	 * see NeuralNetEngine.setPool()
+	 * @param pool the pool to use, or null to run everything on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		this.isPoolSet = true;
+	}
+
+	protected ForkJoinPool getPool() {
+		return isPoolSet ? pool : MatrixOps.getDefaultPool();
+	}
+
+	/**
+	 * see NeuralNetEngine.setBackend()
+	 * @param name the name of a MatrixBackend
+	 */
+	public void setBackend(String name) {
+		setBackend(MatrixBackends.get(name));
+	}
+
+	public void setBackend(MatrixBackend backend) {
+		this.backend = backend;
+		this.fastSigmoidBackend = null;
+	}
+
+	protected MatrixBackend getBackend() {
+		if (backend == null) {
+			backend = MatrixBackends.getDefault();
+		}
+		if (isFastSigmoid) {
+			if (fastSigmoidBackend == null) {
+				fastSigmoidBackend = new FastSigmoidBackend(backend);
+			}
+			return fastSigmoidBackend;
+		}
+		return backend;
+	}
+
+	/**
+	 * see NeuralNetEngine.setFastSigmoid()
+	 * @param fastSigmoid false (the default) for the exact sigmoid
+	 */
+	public void setFastSigmoid(boolean fastSigmoid) {
+		this.isFastSigmoid = fastSigmoid;
+	}
+
+	/**
+	 * the activation function of the layers, both SIGMOID by default, see NeuralNetEngine.setActivations()
+	 * @param hidden every hidden layer's
+	 * @param output the output layer's
+	 */
+	public void setActivations(Activation hidden, Activation output) {
+		if (hidden == null || output == null) {
+			throw new IllegalArgumentException("Both layers need an activation");
+		}
+		this.hiddenActivation = hidden;
+		this.outputActivation = output;
+	}
+
+	public Activation getHiddenActivation() {
+		return hiddenActivation;
+	}
+
+	public Activation getOutputActivation() {
+		return outputActivation;
+	}
+
+	/**
+	 * how the weight changes move the weights, see NeuralNetEngine.setOptimizer(). It is
+	 * given all the weights and changes at once as slot 0, so it sweeps the net in one go.
+	 * @param optimizer null to add the training rate times the changes
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+
+	/**
+	 * see NeuralNetEngine.setBatchSize()
+	 * @param batchSize rows per batch, 0 to train on all the data at once
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 0) {
+			throw new IllegalArgumentException("Batch size can't be negative: " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * splits the rows of a full batch into this many shards, each worked out on its own
+	 * thread from the pool with its own weight changes. The changes are then added into
+	 * the first shard's in shard order, one sweep of the flat array each, so the results
+	 * are the same every time for a given number of threads. Mini-batches ignore it.
+	 * @param threads 1 to train on the calling thread
+	 */
+	public void setTrainingThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Training needs at least one thread: " + threads);
+		}
+		this.trainingThreads = threads;
+	}
+
+	/**
+	 * see NeuralNetEngine.setTargetLoss()
+	 * @param loss 0 for no target
+	 */
+	public void setTargetLoss(double loss) {
+		loop.stopping.setTargetLoss(loss);
+	}
+
+	/**
+	 * see NeuralNetEngine.setPlateau()
+	 * @param patience 0 to never stop on a plateau
+	 * @param minImprovement the fraction of the best error a cycle has to improve on it by, from 0 to below 1
+	 */
+	public void setPlateau(int patience, double minImprovement) {
+		loop.stopping.setPlateau(patience, minImprovement);
+	}
+
+	/**
+	 * @param millis 0 for no limit
+	 */
+	public void setTimeBudget(long millis) {
+		loop.stopping.setTimeBudget(millis);
+	}
+
+	/**
+	 * @return why the last call to trainNet() stopped
+	 */
+	public StopReason getStopReason() {
+		return loop.stopping.getReason();
+	}
+
+	/**
+	 * @return the cycles (epochs with mini-batches) the last call to trainNet() ran
+	 */
+	public int getCyclesTrained() {
+		return loop.stopping.getCycles();
+	}
+
+	/**
+	 * @return the rows trained on since trainNet() was last called, each row counting once each cycle or epoch
+	 */
+	public long getRowsTrained() {
+		return loop.rowsTrained.get();
+	}
+
+	/**
+	 * @return the epochs trained with mini-batches since the weights were randomised
+	 */
+	public int getEpochs() {
+		return loop.getEpochs();
+	}
+
+	/**
+	 * turns the time and accuracy printed every 100 training cycles on or off, on by default
+	 * @param printingProgress
+	 */
+	public void setPrintingProgress(boolean printingProgress) {
+		loop.setPrintingProgress(printingProgress);
+	}
+
+	/**
+	 * pass the training data to the net before calling trainNet()
+	 * @param inputs training input, one row per example, already normalised, shapeOfNet[0] columns
+	 * @param outputs expected output, one row per example, already normalised, as many columns as the output layer
+	 */
+	public void setTrainingData(Matrix inputs, Matrix outputs) {
+		int last = shapeOfNet.length - 1;
+		if (inputs.getCols() != shapeOfNet[0] || outputs.getCols() != shapeOfNet[last]
+				|| inputs.getRows() != outputs.getRows()) {
+			throw new IllegalArgumentException("Training data of " + inputs.getRows() + "x" + inputs.getCols()
+					+ " inputs and " + outputs.getRows() + "x" + outputs.getCols() + " outputs doesn't fit a "
+					+ shapeOfNet[0] + " input, " + shapeOfNet[last] + " output net");
+		}
+		this.X = inputs;
+		this.y = outputs;
+	}
+
+	/**
+	 * run this method after inputting the training data to train the net
+	 * @param isNewNet set flag to false to carry on training the weights the net already has
+	 */
+	public void trainNet(boolean isNewNet) {
+		System.out.println("Training net - this can take a VERY long time...");
+		long time = System.currentTimeMillis();
+		if (isNewNet || !isTrained) {
+			populateRandom(parameters, minRandomWeight, maxRandomWeight);
+			isTrained = true;
+			loop.resetEpochs();
+			if (optimizer != null) {
+				optimizer.reset();
+			}
+		}
+		loop.start(time);
+		if (batchSize > 0) {
+			trainMiniBatch();
+		} else {
+			trainFullBatch();
+		}
+		// Run the input matrix through the net to get outputs for each training value
+		Matrix testNet = runData(X);
+		// Show the results
+		MatrixOps.printMatrix("Output for X after training:", testNet);
+		MatrixOps.printMatrixInts("Output for X after training (out of 100:", testNet);
+		System.out.println("Net trained");
+	}
+
+	private void trainFullBatch() {
+		final int rows = X.getRows();
+		final LayerWorkspace workspace = getWorkspace(rows, false);
+		final Matrix output = workspace.layers[workspace.layers.length - 1];
+		final Shards shards = trainingThreads > 1 && rows > 1 ? shards(workspace, Math.min(trainingThreads, rows))
+				: null;
+
+		// The training loop
+		loop.run(trainingCycles, false, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				if (shards != null) {
+					applyChanges(runShards(shards));
+				} else {
+					changes(workspace, X, y, getPool());
+					applyChanges(workspace.allChanges);
+				}
+				loop.rowsTrained.addAndGet(rows);
+				return isMeasuring ? loss(output) : 0.0;
+			}
+		});
+	}
+
+	/**
+	 * mini-batch training, see NeuralNetEngine.setBatchSize()
+	 */
+	private void trainMiniBatch() {
+		final int rows = X.getRows();
+		final int size = Math.min(batchSize, rows);
+		final LayerWorkspace workspace = getWorkspace(size, true);
+		final int outputLayer = workspace.errors.length - 1;
+		final int[] order = TrainingLoop.order(rows);
+		loop.run(trainingCycles, true, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				double accuracy = 0.0;
+				loop.shuffle(order);
+				for (int start = 0; start < rows; start += size) {
+					LayerWorkspace batch = workspace.top(Math.min(size, rows - start));
+					X.copyRowsTo(order, start, batch.inputBatch);
+					y.copyRowsTo(order, start, batch.expectedBatch);
+					changes(batch, batch.inputBatch, batch.expectedBatch, getPool());
+					if (isMeasuring) {
+						// the output error has become the delta, so it is worked out again from the output
+						accuracy += getBackend().sumAbsoluteDifference(batch.expectedBatch,
+								batch.layers[outputLayer]);
+					}
+					applyChanges(batch.allChanges);
+					loop.rowsTrained.addAndGet(batch.rows);
+				}
+				return accuracy / ((double) rows * y.getCols());
+			}
+		});
+	}
+
+	/**
+	 * a cycle of training that saves its backups with saveBackup()
+	 */
+	private abstract class Cycle implements TrainingLoop.Cycle {
+		@Override
+		public void saveBackup(int iteration) {
+			DeepNetEngine.this.saveBackup(iteration);
+		}
+	}
+
+	/**
+	 * runs the rows forwards and backwards, leaving the weight changes for every layer
+	 * in the workspace's changes. The weights aren't changed.
+	 * @param workspace the buffers for these rows
+	 * @param inputs the rows of X
+	 * @param expected the matching rows of y
+	 * @param pool the threads to split the products across, or null
+	 */
+	private void changes(LayerWorkspace workspace, Matrix inputs, Matrix expected, ForkJoinPool pool) {
+		MatrixBackend backend = getBackend();
+		int last = weights.length - 1;
+		// calculate the values of each layer given the layer above and the weights
+		Matrix layer = inputs;
+		for (int i = 0; i <= last; i++) {
+			Activation activation = i == last ? outputActivation : hiddenActivation;
+			layer = activation.apply(backend.dot(layer, weights[i], workspace.layers[i], pool), backend);
+		}
+
+		// the output delta comes from expected - output, each layer's above it from the
+		// delta below back through the weights, each times the derivative of its activation
+		Matrix delta = outputActivation.delta(backend.subtract(expected, layer, workspace.errors[last]), layer,
+				backend);
+		for (int i = last; i > 0; i--) {
+			backend.dotTransA(workspace.layers[i - 1], delta, workspace.layerChanges[i], false, pool);
+			delta = hiddenActivation.delta(backend.dotTransB(delta, weights[i], workspace.errors[i - 1], pool),
+					workspace.layers[i - 1], backend);
+		}
+		backend.dotTransA(inputs, delta, workspace.layerChanges[0], false, pool);
+	}
+
+	/**
+	 * moves every weight by its change in one sweep, with the optimizer if there is one
+	 * @param changes all the weight changes as one row, laid out like the weights
+	 */
+	private void applyChanges(Matrix changes) {
+		if (optimizer != null) {
+			optimizer.update(0, allWeights, changes, trainingRate);
+		} else {
+			getBackend().addScaledInPlace(allWeights, changes, trainingRate);
+		}
+	}
+
+	/**
+	 * works out every shard's changes, on the pool if there is one, and adds them into the first's
+	 * @return all the changes as one row
+	 */
+	private Matrix runShards(Shards task) {
+		Shard[] shards = task.shards;
+		ForkJoinPool pool = getPool();
+		if (pool == null) {
+			for (Shard shard : shards) {
+				shard.compute();
+			}
+		} else {
+			// the tasks are kept from cycle to cycle, a finished one has to be reset to run again
+			for (Shard shard : shards) {
+				shard.reinitialize();
+			}
+			task.reinitialize();
+			pool.invoke(task);
+		}
+		Matrix total = shards[0].workspace.allChanges;
+		for (int i = 1; i < shards.length; i++) {
+			getBackend().add(total, shards[i].workspace.allChanges, total);
+		}
+		return total;
+	}
+
+	/**
+	 * splits the rows of X and y and the workspace into this many shards
+	 * @return the task that runs them, kept for every cycle
+	 */
+	private Shards shards(LayerWorkspace workspace, int shardCount) {
+		int rows = X.getRows();
+		Shard[] shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			int start = (int) ((long) i * rows / shardCount);
+			int count = (int) ((long) (i + 1) * rows / shardCount) - start;
+			shards[i] = new Shard(X.subMatrix(start, 0, count, X.getCols()),
+					y.subMatrix(start, 0, count, y.getCols()), workspace.shard(start, count));
+		}
+		return new Shards(shards);
+	}
+
+	/**
+	 * runs the shards side by side
+	 */
+	private static final class Shards extends RecursiveAction {
+		private static final long serialVersionUID = -4187630215492711093L;
+		private final Shard[] shards;
+
+		Shards(Shard[] shards) {
+			this.shards = shards;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(shards);
+		}
+	}
+
+	/**
+	 * some of the rows of a full batch and the workspace for them. The products aren't
+	 * split across the pool, as the shards already are.
+	 */
+	private final class Shard extends RecursiveAction {
+		private static final long serialVersionUID = 5520917384420646173L;
+		private final Matrix inputs;
+		private final Matrix expected;
+		private final LayerWorkspace workspace;
+
+		Shard(Matrix inputs, Matrix expected, LayerWorkspace workspace) {
+			this.inputs = inputs;
+			this.expected = expected;
+			this.workspace = workspace;
+		}
+
+		@Override
+		protected void compute() {
+			changes(workspace, inputs, expected, null);
+		}
+	}
+
+	/**
+	 * the workspace for training on this many rows at a time, the one from the last
+	 * training if it is the right size, otherwise a new one
+	 */
+	private LayerWorkspace getWorkspace(int rows, boolean isCopyingRows) {
+		if (workspace == null || !workspace.fits(rows, isCopyingRows)) {
+			workspace = new LayerWorkspace(rows, shapeOfNet, offsets, isCopyingRows);
+		}
+		return workspace;
+	}
+
+	/**
+	 * the average |y - output|
+	 */
+	private double loss(Matrix output) {
+		return getBackend().sumAbsoluteDifference(y, output) / (y.getRows() * y.getCols());
+	}
+
+	/**
+	 * uses the trained neural net to return an output for given input data
+	 * @param inputs
+	 */
+	public double[][] runData(double[][] inputs) {
+		return runData(Matrix.fromArray(inputs)).toArray();
+	}
+
+	/**
+	 * uses the trained neural net to return an output for given input data
+	 * @param inputs one row per set of inputs
+	 * @return a new matrix with one row of outputs per row of inputs
+	 */
+	public Matrix runData(Matrix inputs) {
+		MatrixBackend backend = getBackend();
+		int last = weights.length - 1;
+		Matrix layer = inputs;
+		for (int i = 0; i <= last; i++) {
+			Activation activation = i == last ? outputActivation : hiddenActivation;
+			Matrix result = new Matrix(inputs.getRows(), weights[i].getCols());
+			layer = activation.apply(backend.dot(layer, weights[i], result, getPool()), backend);
+		}
+		return layer;
+	}
+
+	/**
+	 * runs a single set of inputs through the net without allocating anything, see
+	 * NeuralNetEngine.runData(double[], double[]). The hidden layers are kept in buffers
+	 * owned by the net, so only call this from one thread at a time.
+	 * @param inputs one value per input node
+	 * @param outputs filled in with one value per output node, must not be inputs
+	 * @return outputs
+	 */
+	public double[] runData(double[] inputs, double[] outputs) {
+		int last = weights.length - 1;
+		if (rowBuffers == null) {
+			rowBuffers = new double[last][];
+			for (int i = 0; i < last; i++) {
+				rowBuffers[i] = new double[shapeOfNet[i + 1]];
+			}
+		}
+		double[] layer = inputs;
+		for (int i = 0; i < last; i++) {
+			layer = activate(MatrixOps.dot(layer, weights[i], rowBuffers[i]), hiddenActivation);
+		}
+		return activate(MatrixOps.dot(layer, weights[last], outputs), outputActivation);
+	}
+
+	private double[] activate(double[] values, Activation activation) {
+		if (isFastSigmoid && activation == Activation.SIGMOID) {
+			return FastSigmoid.sigmoid(values);
+		}
+		return activation.apply(values);
+	}
+
+	/**
+	 * fills the array with random numbers from min to max, in the same order as
+	 * NeuralNetEngine fills synapse0 then synapse1
+	 */
+	private static void populateRandom(double[] values, double min, double max) {
+		double range = max - min;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (range * Math.random()) + min;
+		}
+	}
+
+	/**
+	 * called every 10000 cycles while training, override to save the net as a backup,
+	 * e.g. from getWeights()
+	 * @param iteration the number of cycles done, minus one
+	 */
+	protected void saveBackup(int iteration) {
+	}
+}
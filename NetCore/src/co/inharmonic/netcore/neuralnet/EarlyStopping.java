@@ -0,0 +1,105 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine.StopReason;
+
+/**
+ * Decides when training can stop before trainingCycles, see NeuralNetEngine.setTargetLoss(),
+ * setPlateau() and setTimeBudget(). TrainingLoop tells it the loss after each
+ * cycle (or epoch) and stops as soon as it says so, and it keeps the reason.
+ * The loss is the average |expected - output|, the accuracy the loop prints.
+ */
+final class EarlyStopping {
+	private double targetLoss = 0.0; // stop once the loss is this or lower, 0 for no target
+	private int patience = 0; // stop after this many cycles without improving, 0 to never
+	private double minImprovement = 0.0; // the fraction the loss has to fall by to count as improving
+	private long timeBudget = 0; // stop after this many milliseconds, 0 for no limit
+	
+	private long startTime;
+	private double bestLoss;
+	private int sinceBest; // cycles since the loss last improved
+	private int cycles; // cycles done
+	private StopReason reason = StopReason.CYCLES;
+
+	void setTargetLoss(double targetLoss) {
+		if (!(targetLoss >= 0.0)) {
+			throw new IllegalArgumentException("The target loss can't be negative: " + targetLoss);
+		}
+		this.targetLoss = targetLoss;
+	}
+
+	void setPlateau(int patience, double minImprovement) {
+		if (patience < 0 || !(minImprovement >= 0.0 && minImprovement < 1.0)) {
+			throw new IllegalArgumentException("The patience can't be negative and the improvement must be from 0 to"
+					+ " below 1: " + patience + ", " + minImprovement);
+		}
+		this.patience = patience;
+		this.minImprovement = minImprovement;
+	}
+
+	void setTimeBudget(long timeBudget) {
+		if (timeBudget < 0) {
+			throw new IllegalArgumentException("The time budget can't be negative: " + timeBudget);
+		}
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * @return true if the loops need to work out the loss every cycle
+	 */
+	boolean isMeasuring() {
+		return targetLoss > 0.0 || patience > 0;
+	}
+
+	/**
+	 * starts counting again for a new call to trainNet()
+	 * @param time when training started, from System.currentTimeMillis()
+	 */
+	void start(long time) {
+		startTime = time;
+		bestLoss = Double.POSITIVE_INFINITY;
+		sinceBest = 0;
+		cycles = 0;
+		reason = StopReason.CYCLES;
+	}
+
+	/**
+	 * call after each cycle
+	 * @param loss the average |expected - output| this cycle, ignored unless isMeasuring()
+	 * @return true to stop training now, getReason() says why
+	 */
+	boolean isStopping(double loss) {
+		cycles++;
+		if (targetLoss > 0.0 && loss <= targetLoss) {
+			reason = StopReason.TARGET_LOSS;
+			return true;
+		}
+		if (patience > 0) {
+			if (loss < bestLoss * (1.0 - minImprovement)) {
+				bestLoss = loss;
+				sinceBest = 0;
+			} else if (++sinceBest >= patience) {
+				reason = StopReason.PLATEAU;
+				return true;
+			}
+		}
+		if (timeBudget > 0 && System.currentTimeMillis() - startTime >= timeBudget) {
+			reason = StopReason.TIME_BUDGET;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return why the last training stopped, CYCLES if it ran them all
+	 */
+	StopReason getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return the cycles (or epochs) the last training ran
+	 */
+	int getCycles() {
+		return cycles;
+	}
+}
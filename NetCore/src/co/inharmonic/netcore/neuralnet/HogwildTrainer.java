@@ -0,0 +1,195 @@
+package co.inharmonic.netcore.neuralnet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixBackend;
+import co.inharmonic.netcore.tools.OffHeapMatrix;
+
+/**
+ * Mini-batch training with several threads updating the same weights without any
+ * locks (Hogwild, Niu et al. 2011), see NeuralNetEngine.setHogwild().
+ * Each epoch the shuffled rows are split between the threads, and each thread trains
+ * on its own share a batch at a time, adding its weight changes straight into the
+ * shared synapses. There's no barrier or reduction between batches, the threads only
+ * wait for each other at the end of the epoch.
+ *
+ * A thread can read weights half way through another thread's update, and two updates
+ * to the same weight at the same time can lose one of them. Hogwild relies on those
+ * being rare and small next to the updates, which holds best when each update only
+ * touches a few weights. Every audio window uses every weight, so they collide much
+ * more than in the sparse problems Hogwild was made for, and the results vary from
+ * run to run.
+ */
+final class HogwildTrainer {
+	private final Matrix X; // the training data, either on the heap
+	private final Matrix y;
+	private final OffHeapMatrix XOffHeap; // or off it
+	private final OffHeapMatrix yOffHeap;
+	private final TrainingWorkspace[] workspaces; // one for each thread
+	private final double[] errors; // each thread's sum of |expected - output| for the epoch
+	private final Worker[] workers; // one for each thread's share of the rows, run again each epoch
+	private final Epoch epoch; // runs the workers side by side
+	private final int batchSize;
+	private final MatrixBackend backend;
+	private final Activation hiddenActivation;
+	private final Activation outputActivation;
+	private final AtomicLong rowsTrained; // added to after every batch
+	private int[] order;
+	private Matrix synapse0;
+	private Matrix synapse1;
+	private double rate;
+	private boolean isMeasuring;
+
+	/**
+	 * @param X the training input, null if it is off the heap
+	 * @param y the training output, null if it is off the heap
+	 * @param XOffHeap the training input if it is off the heap, otherwise null
+	 * @param yOffHeap the training output if it is off the heap, otherwise null
+	 * @param threads
+	 * @param batchSize
+	 * @param hidden the hidden neurons
+	 * @param backend
+	 * @param hiddenActivation
+	 * @param outputActivation
+	 * @param rowsTrained counts the rows trained on
+	 */
+	HogwildTrainer(Matrix X, Matrix y, OffHeapMatrix XOffHeap, OffHeapMatrix yOffHeap, int threads, int batchSize,
+			int hidden, MatrixBackend backend, Activation hiddenActivation, Activation outputActivation,
+			AtomicLong rowsTrained) {
+		if (threads < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("Hogwild needs at least one thread and row per batch: " + threads
+					+ " threads, " + batchSize + " rows");
+		}
+		this.X = X;
+		this.y = y;
+		this.XOffHeap = XOffHeap;
+		this.yOffHeap = yOffHeap;
+		this.batchSize = batchSize;
+		this.backend = backend;
+		this.hiddenActivation = hiddenActivation;
+		this.outputActivation = outputActivation;
+		this.rowsTrained = rowsTrained;
+		int inputs = XOffHeap != null ? XOffHeap.getCols() : X.getCols();
+		int outputs = yOffHeap != null ? yOffHeap.getCols() : y.getCols();
+		int rows = XOffHeap != null ? XOffHeap.getRows() : X.getRows();
+		// a thread for each row at most
+		int shares = Math.max(1, Math.min(threads, rows));
+		workspaces = new TrainingWorkspace[shares];
+		workers = new Worker[shares];
+		for (int i = 0; i < shares; i++) {
+			workspaces[i] = new TrainingWorkspace(batchSize, inputs, hidden, outputs, true, false);
+			workers[i] = new Worker(i, shares);
+		}
+		errors = new double[shares];
+		epoch = new Epoch(workers);
+	}
+
+	/**
+	 * trains one epoch, each thread taking an equal share of the rows in order
+	 * @param order every row in the order to train on them, already shuffled
+	 * @param synapse0 changed in place
+	 * @param synapse1 changed in place
+	 * @param rate
+	 * @param isMeasuring true to add up the errors
+	 * @param pool the threads to run on, if null each share is trained one after another
+	 * @return the sum of |expected - output| over the epoch, each batch before its update, 0 if not measuring
+	 */
+	double epoch(int[] order, Matrix synapse0, Matrix synapse1, double rate, boolean isMeasuring, ForkJoinPool pool) {
+		this.order = order;
+		this.synapse0 = synapse0;
+		this.synapse1 = synapse1;
+		this.rate = rate;
+		this.isMeasuring = isMeasuring;
+		if (pool == null || workers.length == 1) {
+			for (Worker worker : workers) {
+				worker.compute();
+			}
+		} else {
+			// the tasks are kept from epoch to epoch, a finished one has to be reset to run again
+			for (Worker worker : workers) {
+				worker.reinitialize();
+			}
+			epoch.reinitialize();
+			pool.invoke(epoch);
+		}
+		double error = 0.0;
+		for (double threadError : errors) {
+			error += threadError;
+		}
+		return error;
+	}
+
+	/**
+	 * runs the workers side by side
+	 */
+	private static final class Epoch extends RecursiveAction {
+		private static final long serialVersionUID = 3126547829153706211L;
+		private final Worker[] workers;
+
+		Epoch(Worker[] workers) {
+			this.workers = workers;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(workers);
+		}
+	}
+
+	private final class Worker extends RecursiveAction {
+		private static final long serialVersionUID = -2360981652203867458L;
+		private final int thread;
+		private final int threads;
+
+		Worker(int thread, int threads) {
+			this.thread = thread;
+			this.threads = threads;
+		}
+
+		@Override
+		protected void compute() {
+			train(thread, threads);
+		}
+	}
+
+	/**
+	 * trains on one thread's share of the rows a batch at a time, updating the shared weights after each
+	 */
+	private void train(int thread, int threads) {
+		TrainingWorkspace workspace = workspaces[thread];
+		int first = (int) ((long) thread * order.length / threads);
+		int end = (int) ((long) (thread + 1) * order.length / threads);
+		double error = 0.0;
+		for (int start = first; start < end; start += batchSize) {
+			TrainingWorkspace batch = workspace.top(Math.min(batchSize, end - start));
+			if (XOffHeap != null) {
+				XOffHeap.copyRowsTo(order, start, batch.inputBatch);
+				yOffHeap.copyRowsTo(order, start, batch.expectedBatch);
+			} else {
+				X.copyRowsTo(order, start, batch.inputBatch);
+				y.copyRowsTo(order, start, batch.expectedBatch);
+			}
+
+			hiddenActivation.apply(backend.dot(batch.inputBatch, synapse0, batch.hiddenLayer, null), backend);
+			outputActivation.apply(backend.dot(batch.hiddenLayer, synapse1, batch.outputLayer, null), backend);
+			backend.subtract(batch.expectedBatch, batch.outputLayer, batch.outputError);
+			if (isMeasuring) {
+				error = NeuralNetEngine.addAbsolute(error, batch.outputError);
+			}
+			Matrix outputDelta = outputActivation.delta(batch.outputError, batch.outputLayer, backend);
+			Matrix hiddenDelta = hiddenActivation.delta(backend.dotTransB(outputDelta, synapse1, batch.hiddenError,
+					null), batch.hiddenLayer, backend);
+			backend.dotTransA(batch.hiddenLayer, outputDelta, batch.synapse1Change, false, null);
+			backend.dotTransA(batch.inputBatch, hiddenDelta, batch.synapse0Change, false, null);
+
+			// no locks, other threads may be reading or changing the same weights
+			backend.addScaledInPlace(synapse1, batch.synapse1Change, rate);
+			backend.addScaledInPlace(synapse0, batch.synapse0Change, rate);
+			rowsTrained.addAndGet(batch.rows);
+		}
+		errors[thread] = error;
+	}
+}
@@ -0,0 +1,137 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * The buffers a DeepNetEngine training step needs for one batch size: each layer's
+ * outputs and errors (which become the deltas), and the weight changes. Like
+ * TrainingWorkspace it is made once and written into in place each step.
+ *
+ * The weight changes are one double[] laid out the same as the engine's weights, a
+ * layer after another, with a Matrix view of each layer's part and one of the whole
+ * array, so they can be added up or applied to the weights in a single sweep.
+ */
+final class LayerWorkspace {
+	final int rows;
+	final int[] shapeOfNet;
+	final int[] offsets; // where each layer's weights start in the flat arrays
+
+	final Matrix inputBatch; // the rows of X for this step, null if X is used in place
+	final Matrix expectedBatch; // the matching rows of y
+	final Matrix[] layers; // layers[i] is the output of weights i, rows x shapeOfNet[i + 1]
+	final Matrix[] errors; // the error of each layer, then its delta
+	final double[] changes; // the weight changes for every layer, laid out like the weights
+	final Matrix[] layerChanges; // a view of each layer's part of changes
+	final Matrix allChanges; // all of changes as one row
+
+	private LayerWorkspace top; // the last view from top(), kept as the short batch is the same size each epoch
+
+	/**
+	 * @param rows the rows trained on in each step, the batch size
+	 * @param shapeOfNet the neurons in each layer, inputs first
+	 * @param offsets where each layer's weights start in the flat arrays, with the total at the end
+	 * @param isCopyingRows true to make inputBatch and expectedBatch
+	 */
+	LayerWorkspace(int rows, int[] shapeOfNet, int[] offsets, boolean isCopyingRows) {
+		this.rows = rows;
+		this.shapeOfNet = shapeOfNet;
+		this.offsets = offsets;
+		int last = shapeOfNet.length - 1;
+		inputBatch = isCopyingRows ? new Matrix(rows, shapeOfNet[0]) : null;
+		expectedBatch = isCopyingRows ? new Matrix(rows, shapeOfNet[last]) : null;
+		layers = new Matrix[last];
+		errors = new Matrix[last];
+		for (int i = 0; i < last; i++) {
+			layers[i] = new Matrix(rows, shapeOfNet[i + 1]);
+			errors[i] = new Matrix(rows, shapeOfNet[i + 1]);
+		}
+		changes = new double[offsets[last]];
+		layerChanges = views(changes, shapeOfNet, offsets);
+		allChanges = new Matrix(changes, 0, 1, changes.length, changes.length);
+	}
+
+	/**
+	 * a view of count rows of the batch buffers from start
+	 * @param isSharingChanges true to use the same weight changes, false to make new ones
+	 */
+	private LayerWorkspace(LayerWorkspace workspace, int start, int count, boolean isSharingChanges) {
+		rows = count;
+		shapeOfNet = workspace.shapeOfNet;
+		offsets = workspace.offsets;
+		inputBatch = rows(workspace.inputBatch, start, count);
+		expectedBatch = rows(workspace.expectedBatch, start, count);
+		layers = new Matrix[workspace.layers.length];
+		errors = new Matrix[workspace.errors.length];
+		for (int i = 0; i < layers.length; i++) {
+			layers[i] = rows(workspace.layers[i], start, count);
+			errors[i] = rows(workspace.errors[i], start, count);
+		}
+		if (isSharingChanges) {
+			changes = workspace.changes;
+			layerChanges = workspace.layerChanges;
+			allChanges = workspace.allChanges;
+		} else {
+			changes = new double[workspace.changes.length];
+			layerChanges = views(changes, shapeOfNet, offsets);
+			allChanges = new Matrix(changes, 0, 1, changes.length, changes.length);
+		}
+	}
+
+	/**
+	 * whether this workspace is the right one for training with these sizes, the
+	 * shape of the net can't change
+	 */
+	boolean fits(int rows, boolean isCopyingRows) {
+		return this.rows == rows && (inputBatch != null) == isCopyingRows;
+	}
+
+	/**
+	 * the workspace for a step on fewer rows, e.g. the last batch of an epoch.
+	 * The view is kept, so asking for the same count again doesn't allocate.
+	 * @param count from 1 to rows
+	 * @return this if count is rows, otherwise a view of the first count rows
+	 */
+	LayerWorkspace top(int count) {
+		if (count == rows) {
+			return this;
+		}
+		if (count < 1 || count > rows) {
+			throw new IndexOutOfBoundsException("Can't take " + count + " rows of a " + rows + " row workspace");
+		}
+		if (top == null || top.rows != count) {
+			top = new LayerWorkspace(this, 0, count, true);
+		}
+		return top;
+	}
+
+	/**
+	 * a view of count rows from start with its own weight changes, so several threads
+	 * can each work out the changes for their own rows at the same time
+	 */
+	LayerWorkspace shard(int start, int count) {
+		if (start < 0 || count < 1 || start + count > rows) {
+			throw new IndexOutOfBoundsException("Can't take " + count + " rows from " + start + " of a "
+					+ rows + " row workspace");
+		}
+		return new LayerWorkspace(this, start, count, false);
+	}
+
+	/**
+	 * a Matrix view of each layer's weights in a flat array
+	 * @param data every layer's weights, a layer after another
+	 * @param shapeOfNet the neurons in each layer, inputs first
+	 * @param offsets where each layer's weights start in data
+	 * @return view i is shapeOfNet[i] x shapeOfNet[i + 1]
+	 */
+	static Matrix[] views(double[] data, int[] shapeOfNet, int[] offsets) {
+		Matrix[] views = new Matrix[shapeOfNet.length - 1];
+		for (int i = 0; i < views.length; i++) {
+			views[i] = new Matrix(data, offsets[i], shapeOfNet[i], shapeOfNet[i + 1], shapeOfNet[i + 1]);
+		}
+		return views;
+	}
+
+	private static Matrix rows(Matrix matrix, int start, int count) {
+		return matrix == null ? null : matrix.subMatrix(start, 0, count, matrix.getCols());
+	}
+}
@@ -0,0 +1,48 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * Gradient descent with momentum: each weight keeps a velocity, which is
+ * momentum * velocity + rate * change, and moves by it. The velocity builds up
+ * along directions the changes keep agreeing on and cancels out where they swap sign.
+ */
+public class MomentumOptimizer implements Optimizer {
+	private final double momentum;
+	private final OptimizerState state = new OptimizerState(1);
+
+	/**
+	 * @param momentum from 0.0 (plain gradient descent) to below 1.0, usually 0.9
+	 */
+	public MomentumOptimizer(double momentum) {
+		if (momentum < 0.0 || momentum >= 1.0) {
+			throw new IllegalArgumentException("Momentum must be from 0 to below 1: " + momentum);
+		}
+		this.momentum = momentum;
+	}
+
+	@Override
+	public void update(int slot, Matrix weights, Matrix change, double rate) {
+		int rows = weights.getRows();
+		int cols = weights.getCols();
+		double[] velocity = state.get(slot, 0, rows * cols);
+		double[] w = weights.getData();
+		double[] g = change.getData();
+		for (int i = 0; i < rows; i++) {
+			int wRow = weights.getOffset() + i * weights.getStride();
+			int gRow = change.getOffset() + i * change.getStride();
+			int vRow = i * cols;
+			for (int j = 0; j < cols; j++) {
+				double v = momentum * velocity[vRow + j] + rate * g[gRow + j];
+				velocity[vRow + j] = v;
+				w[wRow + j] += v;
+			}
+		}
+		state.step(slot);
+	}
+
+	@Override
+	public void reset() {
+		state.clear();
+	}
+}
@@ -0,0 +1,1095 @@
+package co.inharmonic.netcore.neuralnet;
+
+import java.util.concurrent.ForkJoinPool;
+
+import co.inharmonic.netcore.tools.CscMatrix;
+import co.inharmonic.netcore.tools.CsrMatrix;
+import co.inharmonic.netcore.tools.Expr;
+import co.inharmonic.netcore.tools.FastSigmoid;
+import co.inharmonic.netcore.tools.FastSigmoidBackend;
+import co.inharmonic.netcore.tools.FloatMatrix;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixBackend;
+import co.inharmonic.netcore.tools.MatrixBackends;
+import co.inharmonic.netcore.tools.MatrixOps;
+import co.inharmonic.netcore.tools.OffHeapMatrix;
+
+/**
+ * A neural net with one hidden layer and sigmoid activations, trained by backpropagation
+ * over all of the training data each cycle. Other activations can be set, see Activation.
+ * This is the part shared by the applications, each one extends it to take its own
+ * TrainingData and to save the net its own way.
+ */
+public class NeuralNetEngine {
+	// the number of rows of off-heap training data brought onto the heap at a time
+	private static final int OFF_HEAP_BLOCK_ROWS = 1024;
+	// matrices with a smaller fraction of non-zero values than this are multiplied as sparse matrices
+	private static final double SPARSE_DENSITY = 0.3;
+	
+	/**
+	 * The number type used for the matrices while training and running the net.
+	 * The weights are always saved as doubles so a net can be loaded either way.
+	 * 
+	 * FLOAT halves the memory used and the bandwidth needed by the matrix products,
+	 * and twice as many values fit in each SIMD instruction. The inputs are 16 bit
+	 * samples so float still has more precision than the data. The rounding sends
+	 * training down a slightly different path from DOUBLE, but it converges as fast.
+	 * Only full batches of training data on the heap are trained in float, the
+	 * other ways of training use the doubles.
+	 */
+	public enum Precision {
+		DOUBLE, FLOAT
+	}
+	
+	/**
+	 * why training stopped, see getStopReason()
+	 */
+	public enum StopReason {
+		CYCLES, // ran all the training cycles
+		TARGET_LOSS, // the error got down to setTargetLoss()
+		PLATEAU, // the error stopped falling, see setPlateau()
+		TIME_BUDGET // ran out of setTimeBudget()
+	}
+	
+	protected int hiddenNeurons;
+	protected double trainingRate; // The rate at which the weight updates each training pass
+	protected int trainingCycles; // The number of times the backpropagation algorithm is used
+	protected double minRandomWeight; // The spread of initial random weights
+	protected double maxRandomWeight;
+	protected Matrix X; // training input
+	protected Matrix y; // training output
+	protected Matrix synapse0; // weights between input layer and hidden
+	protected Matrix synapse1; // weights between hidden layer and output
+	protected Matrix layer1; // hidden layer
+	protected Matrix layer2; // output layer
+	protected Precision precision = Precision.DOUBLE;
+	protected Activation hiddenActivation = Activation.SIGMOID;
+	protected Activation outputActivation = Activation.SIGMOID;
+	// float copies of the weights, used instead of the doubles when precision is FLOAT
+	private FloatMatrix synapse0Float;
+	private FloatMatrix synapse1Float;
+	// the synapses as sparse matrices for running data, null if they are mostly non-zero
+	private CscMatrix synapse0Sparse;
+	private CscMatrix synapse1Sparse;
+	private boolean isSparseChecked; // whether the synapses have been checked for sparseness since they last changed
+	// training data kept outside the heap, used instead of X and y when set
+	private OffHeapMatrix XOffHeap;
+	private OffHeapMatrix yOffHeap;
+	// buffers for running a single set of inputs, created when first needed
+	private double[] hiddenBuffer;
+	private float[] inputBufferFloat;
+	private float[] hiddenBufferFloat;
+	private float[] outputBufferFloat;
+	private ForkJoinPool pool; // the threads large matrix products are split across
+	private boolean isPoolSet; // if false MatrixOps' default pool is used
+	private MatrixBackend backend; // does the double matrix work, see MatrixBackends
+	private boolean isFastSigmoid = false; // use FastSigmoid rather than Math.exp()
+	private MatrixBackend fastSigmoidBackend; // backend with FastSigmoid, made when first needed
+	private boolean isStrassen = false; // use MatrixOps.dotStrassen() for the weight changes
+	private boolean isFused = false; // train with fused Expr lines rather than the backend
+	private int batchSize = 0; // rows per mini-batch, 0 to train on all the data each cycle
+	private int trainingThreads = 1; // shards the full batch rows are split into, each on its own thread
+	private boolean isHogwild = false; // mini-batches on several threads updating the weights without locks
+	private Optimizer optimizer; // moves the weights by the changes, null to add rate * changes
+	private final TrainingLoop loop = new TrainingLoop(); // runs the cycles, stops early and counts the rows trained
+	private TrainingWorkspace workspace; // the training buffers, kept between calls to trainNet() while the shapes match
+	
+	/**
+	 * for subclasses that set the parameters later, e.g. when a saved net is loaded
+	 */
+	protected NeuralNetEngine() {
+	}
+	
+	/**
+	 * Create a new artificial neural net with the parameters given
+	 * @param inputs The number of input nodes in the top layer
+	 * @param hiddenNeurons The number of nodes in the hidden layer
+	 * @param outputNeurons The number of output nodes in the bottom layer
+	 * @param trainingRate The rate at which the weight updates each training pass
+	 * @param trainingCycles The number of times the backpropagation algorithm is used (60k works)
+	 * @param minRandomWeight The spread of initial random weights - Min
+	 * @param maxRandomWeight The spread of initial random weights - Max
+	 */
+	public NeuralNetEngine(int hiddenNeurons, double trainingRate, 
+			int trainingCycles, double minRandomWeight, double maxRandomWeight) {
+		
+		setParameters(hiddenNeurons, trainingRate,
+				trainingCycles, minRandomWeight, maxRandomWeight);
+	}
+	
+	/**
+	 * Create a new artificial neural net with the parameters given
+	 * @param hiddenNeurons The number of nodes in the hidden layer
+	 * @param trainingRate The rate at which the weight updates each training pass
+	 * @param trainingCycles The number of times the backpropagation algorithm is used (60k works)
+	 * @param minRandomWeight The spread of initial random weights - Min
+	 * @param maxRandomWeight The spread of initial random weights - Max
+	 * @param precision whether to train and run the net in double or float
+	 */
+	public NeuralNetEngine(int hiddenNeurons, double trainingRate, 
+			int trainingCycles, double minRandomWeight, double maxRandomWeight, Precision precision) {
+		
+		this(hiddenNeurons, trainingRate, trainingCycles, minRandomWeight, maxRandomWeight);
+		this.precision = precision;
+	}
+	
+	/**
+	 * 
+	 * @param inputs The number of input nodes in the top layer
+	 * @param hiddenNeurons The number of nodes in the hidden layer
+	 * @param outputNeurons The number of output nodes in the bottom layer
+	 * @param trainingRate The rate at which the weight updates each training pass
+	 * @param trainingCycles The number of times the backpropagation algorithm is used (60k works)
+	 * @param minRandomWeight The spread of initial random weights - Min
+	 * @param maxRandomWeight The spread of initial random weights - Max
+	 */
+	public void setParameters(int hiddenNeurons,double trainingRate, 
+			int trainingCycles, double minRandomWeight, double maxRandomWeight) {
+		this.hiddenNeurons = hiddenNeurons;
+		this.trainingRate = trainingRate;
+		this.trainingCycles = trainingCycles;
+		this.minRandomWeight = minRandomWeight;
+		this.maxRandomWeight = maxRandomWeight;
+	}
+	
+	/**
+	 * sets the threads used for the matrix products when training and running the net.
+	 * Give each net its own smaller pool when several are training on one machine.
+	 * @param pool the pool to use, or null to run everything on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		this.isPoolSet = true;
+	}
+	
+	protected ForkJoinPool getPool() {
+		return isPoolSet ? pool : MatrixOps.getDefaultPool();
+	}
+	
+	/**
+	 * sets the engine used for the double precision matrix work, e.g. "reference",
+	 * "blocked", "parallel" or "vectorised". If not set the netcore.backend system
+	 * property is used, or "vectorised" if that isn't set either.
+	 * @param name the name of a MatrixBackend
+	 */
+	public void setBackend(String name) {
+		setBackend(MatrixBackends.get(name));
+	}
+	
+	/**
+	 * sets the engine used for the double precision matrix work
+	 * @param backend
+	 */
+	public void setBackend(MatrixBackend backend) {
+		this.backend = backend;
+		this.fastSigmoidBackend = null;
+	}
+	
+	/**
+	 * whether the sigmoid is read from FastSigmoid's table rather than worked out with
+	 * Math.exp(), for training and running the net, in double and float. It is within
+	 * FastSigmoid.MAX_ERROR (about 2.9e-6) of the exact sigmoid, so the weights come
+	 * out a little different but train as well. Fused cycles are done with the backend
+	 * instead while it is on.
+	 * @param fastSigmoid false (the default) for the exact sigmoid
+	 */
+	public void setFastSigmoid(boolean fastSigmoid) {
+		this.isFastSigmoid = fastSigmoid;
+	}
+	
+	/**
+	 * the activation function of each layer, both SIGMOID by default. Set them before
+	 * training and keep them for running the net, the weights only make sense with the
+	 * activations they were trained with. Fused cycles are done with the backend
+	 * instead unless both are SIGMOID, and setFastSigmoid() only changes SIGMOID layers.
+	 * The outputs have to be able to reach the training outputs, see Activation.
+	 * @param hidden the hidden layer's
+	 * @param output the output layer's
+	 */
+	public void setActivations(Activation hidden, Activation output) {
+		if (hidden == null || output == null) {
+			throw new IllegalArgumentException("Both layers need an activation");
+		}
+		this.hiddenActivation = hidden;
+		this.outputActivation = output;
+	}
+	
+	public Activation getHiddenActivation() {
+		return hiddenActivation;
+	}
+	
+	public Activation getOutputActivation() {
+		return outputActivation;
+	}
+	
+	/**
+	 * whether training in double works out each line as one fused Expr rather than doing
+	 * each step separately with the backend. Both give the same weights. Off by default:
+	 * it is no quicker, and unlike the other ways of training it doesn't only use the
+	 * TrainingWorkspace, each cycle makes new Expr trees and block buffers.
+	 * Sparse training data and Strassen use the backend.
+	 * @param fused
+	 */
+	public void setFused(boolean fused) {
+		this.isFused = fused;
+	}
+	
+	/**
+	 * trains with mini-batches of this many rows rather than all the data at once.
+	 * The rows are shuffled at the start of each epoch (one pass through all the data)
+	 * and trainingCycles then counts epochs rather than weight updates. The weights are
+	 * changed after each batch by the training rate times the changes summed over the
+	 * batch, so an epoch moves them about as far as a full batch cycle but in many
+	 * small steps, and needs far fewer epochs than full batch cycles. Smaller batches
+	 * can take a higher training rate. It always trains in double with the backend,
+	 * and works with off-heap training data too.
+	 * @param batchSize rows per batch, 0 to go back to training on all the data at once
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 0) {
+			throw new IllegalArgumentException("Batch size can't be negative: " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * splits the rows of a full batch into this many shards, each worked out on its own
+	 * thread from the pool (see setPool()). Each shard works out its own weight changes,
+	 * these are added up in pairs and the weights get one update a cycle. The products
+	 * within a shard are not split further. The results are the same every time for a
+	 * given number of threads, however many the pool really has, but are not quite the
+	 * same as training on one thread as the sums are added up in a different order.
+	 * Adding up the changes costs a little, so it only pays with the cores to run them on.
+	 * Only full batches of dense training data in double are split, the other ways of
+	 * training ignore it and split the products across the pool as before.
+	 * @param threads 1 (the default) to train on the calling thread
+	 */
+	public void setTrainingThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Training needs at least one thread: " + threads);
+		}
+		this.trainingThreads = threads;
+	}
+	
+	/**
+	 * whether mini-batches are trained on several threads at once, each adding its
+	 * weight changes into the shared weights without locks (Hogwild). Needs setBatchSize()
+	 * and setTrainingThreads() above 1, each epoch the shuffled rows are shared out between
+	 * the threads of the pool (see setPool()) and they only wait for each other at the end
+	 * of it. The updates can collide so the results change from run to run, but an
+	 * epoch gets about as far as training one batch after another. It only speeds
+	 * training up with the cores to run the threads on.
+	 * With no pool the threads' shares are trained one after another.
+	 * @param hogwild
+	 */
+	public void setHogwild(boolean hogwild) {
+		this.isHogwild = hogwild;
+	}
+	
+	/**
+	 * how the weight changes move the weights, e.g. new AdamOptimizer(). With none (the
+	 * default) the weights move by the training rate times the changes, as they always
+	 * have. Full batch, off-heap and mini-batch training in double use it, fused cycles
+	 * are done with the backend instead while there's an optimizer. Full batch float and
+	 * Hogwild training can't use one, trainNet() throws IllegalStateException rather than
+	 * training with the optimizer's rate as a plain step. It is reset when trainNet()
+	 * randomises the weights.
+	 * @param optimizer null to go back to the plain update
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+	
+	/**
+	 * stops training as soon as the average error (the accuracy trainNet() prints) gets
+	 * down to this, rather than running all the training cycles. With mini-batches the
+	 * error is added up from each batch before its update, so it lags a little.
+	 * @param loss 0 for no target
+	 */
+	public void setTargetLoss(double loss) {
+		loop.stopping.setTargetLoss(loss);
+	}
+	
+	/**
+	 * stops training once the average error hasn't fallen by at least minImprovement of
+	 * the best so far for patience cycles in a row (epochs with mini-batches). The error
+	 * is worked out every cycle for this, which costs little next to the cycle. Full
+	 * batch error falls slowly for a long time, so the patience wants to be hundreds of
+	 * cycles there, tens of epochs with mini-batches.
+	 * @param patience 0 to never stop on a plateau
+	 * @param minImprovement the fraction of the best error a cycle has to improve on it by, from 0 to below 1
+	 */
+	public void setPlateau(int patience, double minImprovement) {
+		loop.stopping.setPlateau(patience, minImprovement);
+	}
+	
+	/**
+	 * stops training once it has run for this long, checked at the end of each cycle or epoch
+	 * @param millis 0 for no limit
+	 */
+	public void setTimeBudget(long millis) {
+		loop.stopping.setTimeBudget(millis);
+	}
+	
+	/**
+	 * @return why the last call to trainNet() stopped
+	 */
+	public StopReason getStopReason() {
+		return loop.stopping.getReason();
+	}
+	
+	/**
+	 * @return the cycles (epochs with mini-batches) the last call to trainNet() ran
+	 */
+	public int getCyclesTrained() {
+		return loop.stopping.getCycles();
+	}
+	
+	/**
+	 * the throughput counter, it can be read from another thread while the net trains
+	 * @return the rows trained on since trainNet() was last called, each row counting once each cycle or epoch
+	 */
+	public long getRowsTrained() {
+		return loop.rowsTrained.get();
+	}
+	
+	/**
+	 * @return the epochs trained with mini-batches since the weights were randomised
+	 */
+	public int getEpochs() {
+		return loop.getEpochs();
+	}
+	
+	protected MatrixBackend getBackend() {
+		if (backend == null) {
+			backend = MatrixBackends.getDefault();
+		}
+		if (isFastSigmoid) {
+			if (fastSigmoidBackend == null) {
+				fastSigmoidBackend = new FastSigmoidBackend(backend);
+			}
+			return fastSigmoidBackend;
+		}
+		return backend;
+	}
+	
+	public Precision getPrecision() {
+		return precision;
+	}
+	
+	/**
+	 * the number of output nodes, the length runData() fills in
+	 * @return
+	 */
+	public int getOutputSize() {
+		return synapse1.getCols();
+	}
+	
+	/**
+	 * turns the time and accuracy printed every 100 training cycles on or off, on by default
+	 * @param printingProgress
+	 */
+	public void setPrintingProgress(boolean printingProgress) {
+		loop.setPrintingProgress(printingProgress);
+	}
+	
+	/**
+	 * multiplies the weight changes (X^T.layer1Delta and layer1^T.layer2Delta) with the
+	 * Strassen-Winograd method while training in double. Off by default; it only speeds
+	 * things up when the training data, inputs and hidden layer all have several hundred
+	 * or more rows/nodes, and the weights come out very slightly different, see MatrixOps.dotStrassen()
+	 * @param strassen
+	 */
+	public void setStrassen(boolean strassen) {
+		this.isStrassen = strassen;
+	}
+	
+	/**
+	 * pass the training data to the net before calling trainNet()
+	 * @param inputs training input, one row per example, already normalised
+	 * @param outputs expected output, one row per example, already normalised
+	 */
+	public void setTrainingData(Matrix inputs, Matrix outputs) {
+		this.X = inputs;
+		this.y = outputs;
+		this.XOffHeap = null;
+		this.yOffHeap = null;
+	}
+	
+	/**
+	 * pass the training data to the net before calling trainNet(), keeping it outside
+	 * the Java heap. Only a block of rows at a time is brought onto the heap while
+	 * training, so the data can be much bigger than the heap. It is always trained
+	 * in double and is not saved with the net.
+	 * @param inputs training input, already normalised, keep its arena open until training has finished
+	 * @param outputs expected output, already normalised
+	 */
+	public void setTrainingData(OffHeapMatrix inputs, OffHeapMatrix outputs) {
+		this.XOffHeap = inputs;
+		this.yOffHeap = outputs;
+		this.X = null;
+		this.y = null;
+	}
+	
+	/**
+	 * run this method after inputting the training data to train the net
+	 * @param isNewNet set flag to false if loading older training data to train further
+	 */
+	public void trainNet(boolean isNewNet) {
+		boolean isHogwildTraining = isHogwild && batchSize > 0 && trainingThreads > 1;
+		boolean isFloatTraining = precision == Precision.FLOAT && XOffHeap == null && batchSize == 0;
+		if (optimizer != null && (isHogwildTraining || isFloatTraining)) {
+			throw new IllegalStateException("An optimizer can't be used with " + (isHogwildTraining ? "Hogwild"
+					: "full batch float") + " training, set it to null or train another way");
+		}
+		System.out.println("Training net - this can take a VERY long time...");
+		long time = System.currentTimeMillis();
+		// every way of training changes the double weights, the float copies are made again after
+		weightsChanged();
+		// only randomise the synapses if the new net tag is true, otherwise it is a continuation of previous training.
+		if (isNewNet) {
+			// Synapses contain the weights for each layer, these are randomised to begin with
+			synapse0 = new Matrix(XOffHeap != null ? XOffHeap.getCols() : X.getCols(), hiddenNeurons);
+			populateRandom(synapse0, minRandomWeight, maxRandomWeight);
+		
+			synapse1 = new Matrix(hiddenNeurons, yOffHeap != null ? yOffHeap.getCols() : y.getCols());
+			populateRandom(synapse1, minRandomWeight, maxRandomWeight);
+			loop.resetEpochs();
+			if (optimizer != null) {
+				optimizer.reset();
+			}
+		}
+		// The layers are the output values of each layer.
+		// They are initialised to nothing to begin with, created properly in the training loop
+		layer1 = new Matrix(0, 0);
+		layer2 = new Matrix(0, 0);
+		loop.start(time);
+		
+		if (XOffHeap != null) {
+			// the outputs for all the training data would be too big to show
+			if (isHogwildTraining) {
+				trainHogwild();
+			} else if (batchSize > 0) {
+				trainMiniBatch();
+			} else {
+				trainOffHeap();
+			}
+			System.out.println("Net trained");
+			return;
+		}
+		if (isHogwildTraining) {
+			trainHogwild();
+		} else if (batchSize > 0) {
+			trainMiniBatch();
+		} else if (precision == Precision.FLOAT) {
+			trainFloat();
+		} else {
+			trainDouble();
+		}
+		// Run the input matrix through the net to get outputs for each training value on layer 2
+		Matrix testNet = runData(X);
+		// Show the results
+		MatrixOps.printMatrix("Output for X after training:", testNet);
+		MatrixOps.printMatrixInts("Output for X after training (out of 100:", testNet);
+		System.out.println("Net trained");
+	}
+	
+	private void trainDouble() {
+		// Mostly zero inputs or outputs, like one-hot outputs, are kept as sparse
+		// matrices so the multiplies by zero are skipped. The results are the same.
+		boolean isSparseX = MatrixOps.density(X) < SPARSE_DENSITY;
+		final CsrMatrix sparseX = isSparseX ? CsrMatrix.fromDense(X) : null;
+		final CscMatrix sparseXColumns = isSparseX ? CscMatrix.fromDense(X) : null;
+		final CsrMatrix sparseY = MatrixOps.density(y) < SPARSE_DENSITY ? CsrMatrix.fromDense(y) : null;
+		// X doesn't change while training, so it is only transposed once for the Strassen products
+		final Matrix XTransposed = isStrassen && sparseX == null ? MatrixOps.transpose(X) : null;
+		
+		// the whole cycle can be done with fused expressions unless one of the other paths is needed
+		final boolean isFusedCycle = isFused && sparseX == null && sparseY == null && !isStrassen && optimizer == null
+				&& !isFastSigmoid && hiddenActivation == Activation.SIGMOID && outputActivation == Activation.SIGMOID;
+		final TrainingWorkspace workspace = getWorkspace(X.getRows(), false);
+		// with more than one thread the rows are split into shards unless one of the other paths is needed
+		final ShardedStep shardedStep = trainingThreads > 1 && !isFusedCycle && sparseX == null && sparseY == null
+				&& !isStrassen ? new ShardedStep(X, y, workspace, Math.min(trainingThreads, X.getRows()), getBackend(),
+						hiddenActivation, outputActivation) : null;
+		
+		// The training loop
+		loop.run(trainingCycles, false, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				if (shardedStep != null) {
+					trainCycleSharded(workspace, shardedStep);
+				} else if (isFusedCycle) {
+					trainCycleFused(workspace);
+				} else {
+					trainCycle(workspace, sparseX, sparseXColumns, sparseY, XTransposed);
+				}
+				loop.rowsTrained.addAndGet(X.getRows());
+				return isMeasuring ? loss(layer2) : 0.0;
+			}
+		});
+	}
+	
+	/**
+	 * one cycle of training, using the backend for the matrix work.
+	 * Everything is written into the workspace, the only allocations are the Strassen
+	 * quadrants and the tasks for products big enough to split across the pool.
+	 */
+	private void trainCycle(TrainingWorkspace workspace, CsrMatrix sparseX, CscMatrix sparseXColumns,
+			CsrMatrix sparseY, Matrix XTransposed) {
+		// calculate the values of each layer given the inputs and the weights
+		layer1 = sparseX != null ? forwardPropogate(sparseX, synapse0, workspace.hiddenLayer, hiddenActivation)
+				: forwardPropogate(X, synapse0, workspace.hiddenLayer, hiddenActivation);
+		layer2 = forwardPropogate(layer1, synapse1, workspace.outputLayer, outputActivation);
+		
+		// Calculate the delta error for each output layer, starting
+		// with the bottom working up.
+		// This is the difference between the expected values and actual values
+		// times the derivative (gradient) of the layer's activation function
+		// The 1st error comes from y - output
+		Matrix outputError = sparseY != null ? MatrixOps.subtract(sparseY, layer2, workspace.outputError)
+				: getBackend().subtract(y, layer2, workspace.outputError);
+		Matrix layer2Delta = delta(outputError, layer2, outputActivation);
+		// subsequent layers come from the delta of the lower layer divided by the
+		// weights, synapse1 is read as its transpose in place rather than being copied
+		Matrix layer1Delta = delta(getBackend().dotTransB(layer2Delta, synapse1, workspace.hiddenError, getPool()),
+				layer1, hiddenActivation);
+		
+		// Apply the error gradients to each weight, this moves the value closer to the expected
+		// or reduces the error
+		// layer1 and X are read as their transposes in place rather than being copied
+		if (isStrassen) {
+			MatrixOps.dotStrassen(MatrixOps.transpose(layer1, workspace.hiddenLayerTransposed()), layer2Delta,
+					workspace.synapse1Change, getPool());
+		} else {
+			getBackend().dotTransA(layer1, layer2Delta, workspace.synapse1Change, false, getPool());
+		}
+		applyChange(1, synapse1, workspace.synapse1Change);
+		if (sparseXColumns != null) {
+			MatrixOps.dotTransA(sparseXColumns, layer1Delta, workspace.synapse0Change);
+		} else if (XTransposed != null) {
+			MatrixOps.dotStrassen(XTransposed, layer1Delta, workspace.synapse0Change, getPool());
+		} else {
+			getBackend().dotTransA(X, layer1Delta, workspace.synapse0Change, false, getPool());
+		}
+		applyChange(0, synapse0, workspace.synapse0Change);
+	}
+	
+	/**
+	 * one cycle of training with the rows split into shards, see setTrainingThreads()
+	 */
+	private void trainCycleSharded(TrainingWorkspace workspace, ShardedStep shardedStep) {
+		TrainingWorkspace changes = shardedStep.run(synapse0, synapse1, getPool());
+		// the shards wrote their rows of the layers straight into the workspace
+		layer1 = workspace.hiddenLayer;
+		layer2 = workspace.outputLayer;
+		applyChange(1, synapse1, changes.synapse1Change);
+		applyChange(0, synapse0, changes.synapse0Change);
+	}
+	
+	/**
+	 * moves the weights by their changes, with the optimizer if there is one
+	 * @param slot 0 for synapse0, 1 for synapse1
+	 */
+	private void applyChange(int slot, Matrix weights, Matrix change) {
+		if (optimizer != null) {
+			optimizer.update(slot, weights, change, trainingRate);
+		} else {
+			getBackend().addScaledInPlace(weights, change, trainingRate);
+		}
+	}
+	
+	/**
+	 * one cycle of training, the same steps as trainCycle() but each line is a single
+	 * Expr so the sigmoid, delta and weight updates are done in the same pass as the
+	 * products, without the intermediate matrices. The results are identical.
+	 * The layers and deltas go into the workspace, only the small Expr trees and their
+	 * block buffers are made each cycle.
+	 */
+	private void trainCycleFused(TrainingWorkspace workspace) {
+		layer1 = Expr.of(X).times(synapse0).sigmoid().evalInto(workspace.hiddenLayer, getPool());
+		layer2 = Expr.of(layer1).times(synapse1).sigmoid().evalInto(workspace.outputLayer, getPool());
+		
+		Matrix layer2Delta = Expr.of(y).minus(layer2).sigmoidDelta(layer2).evalInto(workspace.outputError, getPool());
+		Matrix layer1Delta = Expr.of(layer2Delta).times(Expr.t(synapse1)).sigmoidDelta(layer1)
+				.evalInto(workspace.hiddenError, getPool());
+		
+		Expr.of(synapse1).plus(Expr.t(layer1).times(layer2Delta).scale(trainingRate)).evalInto(synapse1, getPool());
+		Expr.of(synapse0).plus(Expr.t(X).times(layer1Delta).scale(trainingRate)).evalInto(synapse0, getPool());
+	}
+	
+	private void trainFloat() {
+		// The training loop, the same as trainDouble() but in float
+		final FloatMatrix inputs = FloatMatrix.fromMatrix(X);
+		final FloatMatrix expected = FloatMatrix.fromMatrix(y);
+		synapse0Float = FloatMatrix.fromMatrix(synapse0);
+		synapse1Float = FloatMatrix.fromMatrix(synapse1);
+		final float rate = (float) trainingRate;
+		final TrainingWorkspace workspace = getWorkspace(X.getRows(), false);
+		final FloatMatrix hiddenLayer = workspace.hiddenLayerFloat;
+		final FloatMatrix outputLayer = workspace.outputLayerFloat;
+		loop.run(trainingCycles, false, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				forwardPropogate(inputs, synapse0Float, hiddenLayer, hiddenActivation);
+				forwardPropogate(hiddenLayer, synapse1Float, outputLayer, outputActivation);
+				
+				FloatMatrix layer2Delta = delta(MatrixOps.subtract(expected, outputLayer, workspace.outputErrorFloat),
+						outputLayer, outputActivation);
+				FloatMatrix layer1Delta = delta(MatrixOps.dotTransB(layer2Delta, synapse1Float,
+						workspace.hiddenErrorFloat, getPool()), hiddenLayer, hiddenActivation);
+				
+				MatrixOps.addScaledInPlace(synapse1Float, MatrixOps.dotTransA(hiddenLayer, layer2Delta,
+						workspace.synapse1ChangeFloat, getPool()), rate);
+				MatrixOps.addScaledInPlace(synapse0Float, MatrixOps.dotTransA(inputs, layer1Delta,
+						workspace.synapse0ChangeFloat, getPool()), rate);
+				loop.rowsTrained.addAndGet(inputs.getRows());
+				return isMeasuring ? MatrixOps.sumAbsoluteDifference(expected, outputLayer)
+						/ (expected.getRows() * expected.getCols()) : 0.0;
+			}
+			
+			@Override
+			public void saveBackup(int iteration) {
+				// the double weights are what get saved
+				copyFloatWeights();
+				super.saveBackup(iteration);
+			}
+		});
+		copyFloatWeights();
+	}
+	
+	/**
+	 * the same as trainDouble(), but with the training data off the heap. Each cycle
+	 * runs through the data a block of rows at a time and adds up the weight changes
+	 * from every block before applying them. The k sums in the products are still in
+	 * the same order so the weights come out exactly the same as trainDouble().
+	 */
+	private void trainOffHeap() {
+		final int rows = XOffHeap.getRows();
+		final int blockRows = Math.min(OFF_HEAP_BLOCK_ROWS, rows);
+		final TrainingWorkspace workspace = getWorkspace(blockRows, true);
+		final Matrix synapse0Change = workspace.synapse0Change;
+		final Matrix synapse1Change = workspace.synapse1Change;
+		loop.run(trainingCycles, false, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				double accuracy = 0.0;
+				synapse0Change.fill(0.0);
+				synapse1Change.fill(0.0);
+				for (int start = 0; start < rows; start += blockRows) {
+					TrainingWorkspace block = workspace.top(Math.min(blockRows, rows - start));
+					Matrix inputs = block.inputBatch;
+					XOffHeap.copyRowsTo(start, inputs);
+					yOffHeap.copyRowsTo(start, block.expectedBatch);
+					
+					Matrix hiddenLayer = forwardPropogate(inputs, synapse0, block.hiddenLayer, hiddenActivation);
+					Matrix outputLayer = forwardPropogate(hiddenLayer, synapse1, block.outputLayer, outputActivation);
+					Matrix outputError = getBackend().subtract(block.expectedBatch, outputLayer, block.outputError);
+					if (isMeasuring) {
+						accuracy = addAbsolute(accuracy, outputError);
+					}
+					Matrix layer2Delta = delta(outputError, outputLayer, outputActivation);
+					Matrix layer1Delta = delta(getBackend().dotTransB(layer2Delta, synapse1, block.hiddenError,
+							getPool()), hiddenLayer, hiddenActivation);
+					getBackend().dotTransA(hiddenLayer, layer2Delta, synapse1Change, true, getPool());
+					getBackend().dotTransA(inputs, layer1Delta, synapse0Change, true, getPool());
+				}
+				applyChange(1, synapse1, synapse1Change);
+				applyChange(0, synapse0, synapse0Change);
+				loop.rowsTrained.addAndGet(rows);
+				return accuracy / ((double) rows * yOffHeap.getCols());
+			}
+		});
+	}
+	
+	/**
+	 * mini-batch training, see setBatchSize(). The workspace is made for a whole batch,
+	 * the last batch of an epoch uses the top rows of it if there aren't enough rows
+	 * left for a whole batch.
+	 */
+	private void trainMiniBatch() {
+		final int rows = XOffHeap != null ? XOffHeap.getRows() : X.getRows();
+		final int outputCols = synapse1.getCols();
+		final int size = Math.min(batchSize, rows);
+		final TrainingWorkspace workspace = getWorkspace(size, true);
+		final Matrix synapse0Change = workspace.synapse0Change;
+		final Matrix synapse1Change = workspace.synapse1Change;
+		final int[] order = TrainingLoop.order(rows);
+		final MatrixBackend backend = getBackend();
+		loop.run(trainingCycles, true, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				double accuracy = 0.0;
+				loop.shuffle(order);
+				for (int start = 0; start < rows; start += size) {
+					TrainingWorkspace batch = workspace.top(Math.min(size, rows - start));
+					Matrix inputs = batch.inputBatch;
+					Matrix expected = batch.expectedBatch;
+					Matrix hiddenLayer = batch.hiddenLayer;
+					Matrix outputLayer = batch.outputLayer;
+					Matrix outputError = batch.outputError;
+					Matrix hiddenError = batch.hiddenError;
+					if (XOffHeap != null) {
+						XOffHeap.copyRowsTo(order, start, inputs);
+						yOffHeap.copyRowsTo(order, start, expected);
+					} else {
+						X.copyRowsTo(order, start, inputs);
+						y.copyRowsTo(order, start, expected);
+					}
+					
+					hiddenActivation.apply(backend.dot(inputs, synapse0, hiddenLayer, getPool()), backend);
+					outputActivation.apply(backend.dot(hiddenLayer, synapse1, outputLayer, getPool()), backend);
+					backend.subtract(expected, outputLayer, outputError);
+					if (isMeasuring) {
+						accuracy = addAbsolute(accuracy, outputError);
+					}
+					Matrix layer2Delta = outputActivation.delta(outputError, outputLayer, backend);
+					Matrix layer1Delta = hiddenActivation.delta(backend.dotTransB(layer2Delta, synapse1, hiddenError,
+							getPool()), hiddenLayer, backend);
+					backend.dotTransA(hiddenLayer, layer2Delta, synapse1Change, false, getPool());
+					backend.dotTransA(inputs, layer1Delta, synapse0Change, false, getPool());
+					applyChange(1, synapse1, synapse1Change);
+					applyChange(0, synapse0, synapse0Change);
+					loop.rowsTrained.addAndGet(batch.rows);
+				}
+				return accuracy / ((double) rows * outputCols);
+			}
+		});
+	}
+	
+	/**
+	 * mini-batch training on several threads without locks, see setHogwild()
+	 */
+	private void trainHogwild() {
+		final int rows = XOffHeap != null ? XOffHeap.getRows() : X.getRows();
+		final int outputCols = synapse1.getCols();
+		final HogwildTrainer trainer = new HogwildTrainer(X, y, XOffHeap, yOffHeap, trainingThreads,
+				Math.min(batchSize, rows), hiddenNeurons, getBackend(), hiddenActivation, outputActivation,
+				loop.rowsTrained);
+		final int[] order = TrainingLoop.order(rows);
+		// the backups are saved once the threads have all finished the epoch
+		loop.run(trainingCycles, true, new Cycle() {
+			@Override
+			public double train(boolean isMeasuring) {
+				loop.shuffle(order);
+				return trainer.epoch(order, synapse0, synapse1, trainingRate, isMeasuring, getPool())
+						/ ((double) rows * outputCols);
+			}
+		});
+	}
+	
+	/**
+	 * a cycle of training that saves its backups with saveBackup()
+	 */
+	private abstract class Cycle implements TrainingLoop.Cycle {
+		@Override
+		public void saveBackup(int iteration) {
+			NeuralNetEngine.this.saveBackup(iteration);
+		}
+	}
+	
+	/**
+	 * the workspace for training on this many rows at a time, the one from the last
+	 * training if it is the right shape, otherwise a new one
+	 * @param rows
+	 * @param isCopyingRows true if the rows are copied into the workspace each step
+	 * @return
+	 */
+	private TrainingWorkspace getWorkspace(int rows, boolean isCopyingRows) {
+		boolean isFloat = precision == Precision.FLOAT && !isCopyingRows;
+		if (workspace == null || !workspace.fits(rows, synapse0.getRows(), hiddenNeurons, synapse1.getCols(),
+				isCopyingRows, isFloat)) {
+			workspace = new TrainingWorkspace(rows, synapse0.getRows(), hiddenNeurons, synapse1.getCols(),
+					isCopyingRows, isFloat);
+		}
+		return workspace;
+	}
+	
+	/**
+	 * adds the absolute values in the matrix to sum, one at a time in row order
+	 * so the total is the same however the rows are split into blocks
+	 */
+	static double addAbsolute(double sum, Matrix matrix) {
+		for (int j = 0; j < matrix.getRows(); j++) {
+			for (int k = 0; k < matrix.getCols(); k++) {
+				sum += Math.abs(matrix.get(j, k));
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * copies the float weights back into the double ones
+	 */
+	private void copyFloatWeights() {
+		synapse0 = synapse0Float.toMatrix();
+		synapse1 = synapse1Float.toMatrix();
+	}
+	
+	/**
+	 * the average |y - output|
+	 */
+	private double loss(Matrix output) {
+		return getBackend().sumAbsoluteDifference(y, output) / (y.getRows() * y.getCols());
+	}
+	
+	/**
+	 * uses the trained neural net to return an output for given input data
+	 * @param inputs
+	 */
+	public double[][] runData(double[][] inputs) {
+		return runData(Matrix.fromArray(inputs)).toArray();
+	}
+	
+	/**
+	 * uses the trained neural net to return an output for given input data
+	 * @param inputs one row per set of inputs
+	 * @return a new matrix with one row of outputs per row of inputs
+	 */
+	public Matrix runData(Matrix inputs) {
+		if (precision == Precision.FLOAT) {
+			if (synapse0Float == null) {
+				// loaded from a file, which holds the weights as doubles
+				synapse0Float = FloatMatrix.fromMatrix(synapse0);
+				synapse1Float = FloatMatrix.fromMatrix(synapse1);
+			}
+			FloatMatrix hiddenLayer = forwardPropogate(FloatMatrix.fromMatrix(inputs), synapse0Float, hiddenActivation);
+			layer1 = hiddenLayer.toMatrix();
+			layer2 = forwardPropogate(hiddenLayer, synapse1Float, outputActivation).toMatrix();
+			return layer2.copy();
+		}
+		checkSparseWeights();
+		layer1 = forwardPropogateWeights(inputs, synapse0, synapse0Sparse, hiddenActivation);
+		layer2 = forwardPropogateWeights(layer1, synapse1, synapse1Sparse, outputActivation);
+		
+		return layer2.copy();
+	}
+	
+	/**
+	 * runs a single set of inputs through the net without allocating anything, for
+	 * feeding the outputs back in one step at a time. Gives the same outputs as
+	 * runData() on a single row, but layer1 and layer2 are not updated. The hidden
+	 * layer is kept in a buffer owned by the net, so only call this from one thread
+	 * at a time.
+	 * @param inputs one value per input node
+	 * @param outputs filled in with one value per output node, must not be inputs
+	 * @return outputs
+	 */
+	public double[] runData(double[] inputs, double[] outputs) {
+		if (precision == Precision.FLOAT) {
+			return runDataFloat(inputs, outputs);
+		}
+		if (hiddenBuffer == null || hiddenBuffer.length != synapse0.getCols()) {
+			hiddenBuffer = new double[synapse0.getCols()];
+		}
+		activate(MatrixOps.dot(inputs, synapse0, hiddenBuffer), hiddenActivation);
+		activate(MatrixOps.dot(hiddenBuffer, synapse1, outputs), outputActivation);
+		return outputs;
+	}
+	
+	private double[] runDataFloat(double[] inputs, double[] outputs) {
+		if (synapse0Float == null) {
+			synapse0Float = FloatMatrix.fromMatrix(synapse0);
+			synapse1Float = FloatMatrix.fromMatrix(synapse1);
+		}
+		if (inputBufferFloat == null || inputBufferFloat.length != inputs.length
+				|| hiddenBufferFloat.length != synapse0Float.getCols() || outputBufferFloat.length != outputs.length) {
+			inputBufferFloat = new float[inputs.length];
+			hiddenBufferFloat = new float[synapse0Float.getCols()];
+			outputBufferFloat = new float[outputs.length];
+		}
+		for (int i = 0; i < inputs.length; i++) {
+			inputBufferFloat[i] = (float) inputs[i];
+		}
+		activate(MatrixOps.dot(inputBufferFloat, synapse0Float, hiddenBufferFloat), hiddenActivation);
+		activate(MatrixOps.dot(hiddenBufferFloat, synapse1Float, outputBufferFloat), outputActivation);
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] = outputBufferFloat[i];
+		}
+		return outputs;
+	}
+	
+	// Helper methods *************************************************************
+	
+	/**
+	 * calculates the values of a layer given the inputs and the weights
+	 * @param inputs
+	 * @param weights
+	 * @return
+	 */
+	private Matrix forwardPropogate(Matrix inputs, Matrix weights, Activation activation) {
+		return forwardPropogate(inputs, weights, new Matrix(inputs.getRows(), weights.getCols()), activation);
+	}
+	
+	/**
+	 * the same as forwardPropogate(), but into a layer that is already made
+	 * @param inputs
+	 * @param weights
+	 * @param resultLayer overwritten with the layer's values
+	 * @param activation the layer's activation
+	 * @return resultLayer
+	 */
+	private Matrix forwardPropogate(Matrix inputs, Matrix weights, Matrix resultLayer, Activation activation) {
+		getBackend().dot(inputs, weights, resultLayer, getPool());
+		return activation.apply(resultLayer, getBackend());
+	}
+	
+	private Matrix forwardPropogate(CsrMatrix inputs, Matrix weights, Matrix resultLayer, Activation activation) {
+		MatrixOps.dot(inputs, weights, resultLayer);
+		return activation.apply(resultLayer, getBackend());
+	}
+	
+	/**
+	 * the same as forwardPropogate(), but multiplying by the sparse form of the weights if they have one
+	 * @param inputs
+	 * @param weights
+	 * @param sparseWeights the weights as a sparse matrix, or null to use weights
+	 * @param activation
+	 * @return
+	 */
+	private Matrix forwardPropogateWeights(Matrix inputs, Matrix weights, CscMatrix sparseWeights,
+			Activation activation) {
+		if (sparseWeights == null) {
+			return forwardPropogate(inputs, weights, activation);
+		}
+		Matrix resultLayer = MatrixOps.dot(inputs, sparseWeights);
+		return activation.apply(resultLayer, getBackend());
+	}
+	
+	/**
+	 * if most of the weights are zero, e.g. after pruning, they are kept as sparse
+	 * matrices for running data. The weights don't change while running data so they
+	 * are only checked once after they change, unlike while training.
+	 */
+	private void checkSparseWeights() {
+		if (!isSparseChecked) {
+			synapse0Sparse = MatrixOps.density(synapse0) < SPARSE_DENSITY ? CscMatrix.fromDense(synapse0) : null;
+			synapse1Sparse = MatrixOps.density(synapse1) < SPARSE_DENSITY ? CscMatrix.fromDense(synapse1) : null;
+			isSparseChecked = true;
+		}
+	}
+	
+	/**
+	 * forgets everything worked out from the weights for running data, the float copies
+	 * and the sparse forms, called when training starts. Subclasses that change or
+	 * replace synapse0 or synapse1 after running data must call it.
+	 */
+	protected void weightsChanged() {
+		synapse0Float = null;
+		synapse1Float = null;
+		synapse0Sparse = null;
+		synapse1Sparse = null;
+		isSparseChecked = false;
+	}
+	
+	/**
+	 * applies the activation function to all elements in an array
+	 * The array is changed.
+	 * @param values
+	 * @param activation
+	 */
+	private void activate(double[] values, Activation activation) {
+		if (isFastSigmoid && activation == Activation.SIGMOID) {
+			FastSigmoid.sigmoid(values);
+		} else {
+			activation.apply(values);
+		}
+	}
+	
+	private void activate(float[] values, Activation activation) {
+		if (isFastSigmoid && activation == Activation.SIGMOID) {
+			FastSigmoid.sigmoid(values);
+		} else {
+			activation.apply(values);
+		}
+	}
+	
+	private FloatMatrix forwardPropogate(FloatMatrix inputs, FloatMatrix weights, Activation activation) {
+		return forwardPropogate(inputs, weights, new FloatMatrix(inputs.getRows(), weights.getCols()), activation);
+	}
+	
+	private FloatMatrix forwardPropogate(FloatMatrix inputs, FloatMatrix weights, FloatMatrix resultLayer,
+			Activation activation) {
+		MatrixOps.dot(inputs, weights, resultLayer, getPool());
+		if (isFastSigmoid && activation == Activation.SIGMOID) {
+			return FastSigmoid.sigmoid(resultLayer);
+		}
+		return activation.apply(resultLayer);
+	}
+	
+	/**
+	 * populates the matrix with all random numbers from min to max
+	 * @param matrix
+	 */
+	private void populateRandom(Matrix matrix, double min, double max) {
+		double range = max - min;
+		for (int i = 0; i < matrix.getRows(); i++) {
+			for (int j = 0; j < matrix.getCols(); j++) {
+				matrix.set(i, j, (range * Math.random()) + min);
+			}
+		}
+	}
+	
+	/**
+	 * use to calculate the delta error for a layer
+	 * The error matrix is changed to hold the delta.
+	 * @param error
+	 * @param layer the layer's output
+	 * @param activation the layer's activation
+	 * @return error
+	 */
+	private Matrix delta(Matrix error, Matrix layer, Activation activation) {
+		return activation.delta(error, layer, getBackend());
+	}
+	
+	private FloatMatrix delta(FloatMatrix error, FloatMatrix layer, Activation activation) {
+		return activation.delta(error, layer);
+	}
+	
+	/**
+	 * prints the tag followed by the matrix
+	 * @param tag
+	 * @param matrix
+	 */
+	public void printMatrix(String tag, double[][] matrix) {
+		MatrixOps.printMatrix(tag, matrix);
+	}
+	
+	/**
+	 * prints the tag followed by the matrix as a more readable integer out of 100
+	 * @param tag
+	 * @param matrix
+	 */
+	public void printMatrixInts(String tag, double[][] matrix) {
+		MatrixOps.printMatrixInts(tag, matrix);
+	}
+	
+	/**
+	 * prints the tag followed by the matrix
+	 * @param tag
+	 * @param matrix
+	 */
+	public void printMatrix(String tag, Matrix matrix) {
+		MatrixOps.printMatrix(tag, matrix);
+	}
+	
+	/**
+	 * prints the tag followed by the matrix as a more readable integer out of 100
+	 * @param tag
+	 * @param matrix
+	 */
+	public void printMatrixInts(String tag, Matrix matrix) {
+		MatrixOps.printMatrixInts(tag, matrix);
+	}
+	
+	public void printOutputLayerWeights() {
+		MatrixOps.printMatrix(synapse1);
+	}
+	
+	/**
+	 * called every 10000 cycles while training, override to save the net as a backup
+	 * @param iteration the number of cycles done, minus one
+	 */
+	protected void saveBackup(int iteration) {
+	}
+}
@@ -0,0 +1,33 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * How the weight changes worked out by backpropagation move the weights, see
+ * NeuralNetEngine.setOptimizer(). Without one the weights move by the training rate
+ * times the changes. The built in ones are MomentumOptimizer, RmsPropOptimizer and
+ * AdamOptimizer.
+ *
+ * Anything an optimizer keeps for each weight, e.g. a running average, is kept in
+ * flat arrays the size of the weights, made the first time they are updated and
+ * changed in place after that, so updating doesn't allocate anything.
+ * Each net needs its own optimizer.
+ */
+public interface Optimizer {
+
+	/**
+	 * moves the weights
+	 * @param slot which weights these are, 0 for synapse0 and 1 for synapse1, each has its own state.
+	 * DeepNetEngine passes all its weights as slot 0
+	 * @param weights changed in place
+	 * @param change the changes from backpropagation summed over the rows, the downhill
+	 * direction (minus the gradient of the squared error)
+	 * @param rate the training rate
+	 */
+	void update(int slot, Matrix weights, Matrix change, double rate);
+
+	/**
+	 * forgets everything kept about the weights, called when they are randomised
+	 */
+	void reset();
+}
@@ -0,0 +1,54 @@
+package co.inharmonic.netcore.neuralnet;
+
+/**
+ * The flat arrays an Optimizer keeps for each slot of weights, and the number of
+ * updates each slot has had. The arrays are made, all 0.0, the first time a slot asks
+ * for them, or again if the weights have changed size, then reused.
+ */
+final class OptimizerState {
+	private final int arrays; // arrays kept for each slot
+	private double[][][] values = new double[0][][]; // slot, array, one value for each weight
+	private int[] steps = new int[0];
+
+	/**
+	 * @param arrays how many arrays to keep for each slot, e.g. 2 for Adam's two averages
+	 */
+	OptimizerState(int arrays) {
+		this.arrays = arrays;
+	}
+
+	/**
+	 * @param slot
+	 * @param array from 0 to arrays - 1
+	 * @param size the number of weights
+	 * @return the array, size long
+	 */
+	double[] get(int slot, int array, int size) {
+		if (slot >= values.length) {
+			double[][][] grown = new double[slot + 1][][];
+			System.arraycopy(values, 0, grown, 0, values.length);
+			values = grown;
+			int[] grownSteps = new int[slot + 1];
+			System.arraycopy(steps, 0, grownSteps, 0, steps.length);
+			steps = grownSteps;
+		}
+		if (values[slot] == null || values[slot][array].length != size) {
+			values[slot] = new double[arrays][size];
+			steps[slot] = 0;
+		}
+		return values[slot][array];
+	}
+
+	/**
+	 * counts an update of the slot, call after get()
+	 * @return the number of updates including this one
+	 */
+	int step(int slot) {
+		return ++steps[slot];
+	}
+
+	void clear() {
+		values = new double[0][][];
+		steps = new int[0];
+	}
+}
@@ -0,0 +1,61 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * RMSProp (Hinton 2012): each weight keeps a running average of its squared changes,
+ * and moves by rate * change / (sqrt(average) + epsilon), so every weight takes steps
+ * of about the training rate however big or small its changes are. The rate wants to
+ * be much smaller than for plain gradient descent, e.g. 0.001.
+ */
+public class RmsPropOptimizer implements Optimizer {
+	private final double decay;
+	private final double epsilon;
+	private final OptimizerState state = new OptimizerState(1);
+
+	/**
+	 * decay 0.9, epsilon 1e-8
+	 */
+	public RmsPropOptimizer() {
+		this(0.9, 1e-8);
+	}
+
+	/**
+	 * @param decay how much of the average is kept each step, from 0.0 to below 1.0
+	 * @param epsilon added to the root of the average so it can't divide by 0
+	 */
+	public RmsPropOptimizer(double decay, double epsilon) {
+		if (decay < 0.0 || decay >= 1.0 || !(epsilon > 0.0)) {
+			throw new IllegalArgumentException("RMSProp needs a decay from 0 to below 1 and a positive epsilon: "
+					+ decay + ", " + epsilon);
+		}
+		this.decay = decay;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	public void update(int slot, Matrix weights, Matrix change, double rate) {
+		int rows = weights.getRows();
+		int cols = weights.getCols();
+		double[] average = state.get(slot, 0, rows * cols);
+		double[] w = weights.getData();
+		double[] g = change.getData();
+		for (int i = 0; i < rows; i++) {
+			int wRow = weights.getOffset() + i * weights.getStride();
+			int gRow = change.getOffset() + i * change.getStride();
+			int aRow = i * cols;
+			for (int j = 0; j < cols; j++) {
+				double gradient = g[gRow + j];
+				double a = decay * average[aRow + j] + (1.0 - decay) * gradient * gradient;
+				average[aRow + j] = a;
+				w[wRow + j] += rate * gradient / (Math.sqrt(a) + epsilon);
+			}
+		}
+		state.step(slot);
+	}
+
+	@Override
+	public void reset() {
+		state.clear();
+	}
+}
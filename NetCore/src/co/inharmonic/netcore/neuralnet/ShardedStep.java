@@ -0,0 +1,145 @@
+package co.inharmonic.netcore.neuralnet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixBackend;
+
+/**
+ * One full batch training step with the rows split into shards, each worked out on its
+ * own thread from the pool, see NeuralNetEngine.setTrainingThreads().
+ * Each shard runs its rows forwards and backwards and works out its own weight changes
+ * into its own buffers, writing its rows of the layers into the shared workspace. The
+ * shards' changes are then added together in pairs up a binary tree, the halves of each
+ * pair being worked out at the same time, so shard 0 ends up with the total and the
+ * weights get a single update.
+ *
+ * The tree only depends on the number of shards, not on the threads or the order they
+ * finish in, so the results are the same every time for a given number of shards. They
+ * are a little different from training on one thread as the sums over the rows are
+ * added up in a different order.
+ */
+final class ShardedStep {
+	private final Matrix[] inputs; // each shard's rows of X
+	private final Matrix[] expected; // and of y
+	private final TrainingWorkspace[] workspaces; // each shard's rows of the workspace, with their own weight changes
+	private final MatrixBackend backend;
+	private final Activation hiddenActivation;
+	private final Activation outputActivation;
+	private Matrix synapse0;
+	private Matrix synapse1;
+
+	/**
+	 * @param X the training input
+	 * @param y the training output
+	 * @param workspace the workspace for all the rows, the shards are views of it
+	 * @param shards from 1 to the number of rows
+	 * @param backend
+	 * @param hiddenActivation
+	 * @param outputActivation
+	 */
+	ShardedStep(Matrix X, Matrix y, TrainingWorkspace workspace, int shards, MatrixBackend backend,
+			Activation hiddenActivation, Activation outputActivation) {
+		int rows = X.getRows();
+		if (shards < 1 || shards > rows) {
+			throw new IllegalArgumentException("Can't split " + rows + " rows into " + shards + " shards");
+		}
+		inputs = new Matrix[shards];
+		expected = new Matrix[shards];
+		workspaces = new TrainingWorkspace[shards];
+		this.backend = backend;
+		this.hiddenActivation = hiddenActivation;
+		this.outputActivation = outputActivation;
+		for (int i = 0; i < shards; i++) {
+			int start = (int) ((long) i * rows / shards);
+			int count = (int) ((long) (i + 1) * rows / shards) - start;
+			inputs[i] = X.subMatrix(start, 0, count, X.getCols());
+			expected[i] = y.subMatrix(start, 0, count, y.getCols());
+			workspaces[i] = workspace.shard(start, count);
+		}
+	}
+
+	/**
+	 * works out the weight changes for all the rows, the weights aren't changed
+	 * @param synapse0
+	 * @param synapse1
+	 * @param pool the threads to run the shards on, if null they are run one after another
+	 * @return the workspace holding the total weight changes
+	 */
+	TrainingWorkspace run(Matrix synapse0, Matrix synapse1, ForkJoinPool pool) {
+		this.synapse0 = synapse0;
+		this.synapse1 = synapse1;
+		if (pool == null || workspaces.length == 1) {
+			sum(0, workspaces.length);
+		} else {
+			pool.invoke(new Sum(0, workspaces.length));
+		}
+		return workspaces[0];
+	}
+
+	/**
+	 * works out the changes for shards first to end and adds them into first's, on this thread
+	 */
+	private void sum(int first, int end) {
+		if (end - first == 1) {
+			changes(first);
+			return;
+		}
+		int middle = (first + end) >>> 1;
+		sum(first, middle);
+		sum(middle, end);
+		add(first, middle);
+	}
+
+	/**
+	 * the same as sum(), but with the two halves forked
+	 */
+	private final class Sum extends RecursiveAction {
+		private static final long serialVersionUID = -6410327526019934572L;
+		private final int first;
+		private final int end;
+
+		Sum(int first, int end) {
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - first == 1) {
+				changes(first);
+				return;
+			}
+			int middle = (first + end) >>> 1;
+			invokeAll(new Sum(first, middle), new Sum(middle, end));
+			add(first, middle);
+		}
+	}
+
+	/**
+	 * the forwards and backwards pass for one shard. The products aren't split across
+	 * the pool, as the shards already are.
+	 */
+	private void changes(int shard) {
+		TrainingWorkspace workspace = workspaces[shard];
+		hiddenActivation.apply(backend.dot(inputs[shard], synapse0, workspace.hiddenLayer, null), backend);
+		outputActivation.apply(backend.dot(workspace.hiddenLayer, synapse1, workspace.outputLayer, null), backend);
+
+		Matrix outputDelta = outputActivation.delta(backend.subtract(expected[shard], workspace.outputLayer,
+				workspace.outputError), workspace.outputLayer, backend);
+		Matrix hiddenDelta = hiddenActivation.delta(backend.dotTransB(outputDelta, synapse1, workspace.hiddenError,
+				null), workspace.hiddenLayer, backend);
+
+		backend.dotTransA(workspace.hiddenLayer, outputDelta, workspace.synapse1Change, false, null);
+		backend.dotTransA(inputs[shard], hiddenDelta, workspace.synapse0Change, false, null);
+	}
+
+	/**
+	 * adds shard from's weight changes into shard to's
+	 */
+	private void add(int to, int from) {
+		backend.add(workspaces[to].synapse0Change, workspaces[from].synapse0Change, workspaces[to].synapse0Change);
+		backend.add(workspaces[to].synapse1Change, workspaces[from].synapse1Change, workspaces[to].synapse1Change);
+	}
+}
@@ -0,0 +1,144 @@
+package co.inharmonic.netcore.neuralnet;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine.StopReason;
+
+/**
+ * The loop every way of training in NeuralNetEngine and DeepNetEngine runs: it runs the
+ * training cycles (epochs with mini-batches), prints the time and accuracy every 100,
+ * calls for a backup every 10000, stops when EarlyStopping says so, and counts the rows
+ * and epochs trained. The engine gives it a Cycle that does the work of one cycle.
+ */
+final class TrainingLoop {
+	/**
+	 * one training cycle, or one epoch with mini-batches
+	 */
+	interface Cycle {
+		/**
+		 * trains on all the rows once and adds them to getRowsTrained()
+		 * @param isMeasuring true if the average error is needed
+		 * @return the average |expected - output|, ignored if not measuring
+		 */
+		double train(boolean isMeasuring);
+
+		/**
+		 * see NeuralNetEngine.saveBackup()
+		 */
+		void saveBackup(int iteration);
+	}
+
+	final EarlyStopping stopping = new EarlyStopping(); // when to stop before the training cycles
+	final AtomicLong rowsTrained = new AtomicLong(); // rows trained on since start() was called
+	private final Random shuffler = new Random(); // shuffles the rows at the start of each epoch
+	private boolean isPrintingProgress = true; // print the time and accuracy every 100 cycles
+	private int epochs; // passes through the data with mini-batches since the weights were randomised
+	private long startTime;
+
+	void setPrintingProgress(boolean printingProgress) {
+		this.isPrintingProgress = printingProgress;
+	}
+
+	/**
+	 * starts counting the rows, the cycles and the time again for a new call to trainNet()
+	 * @param time when training started, from System.currentTimeMillis()
+	 */
+	void start(long time) {
+		startTime = time;
+		rowsTrained.set(0);
+		stopping.start(time);
+	}
+
+	/**
+	 * counts the epochs from 0 again, for new weights
+	 */
+	void resetEpochs() {
+		epochs = 0;
+	}
+
+	int getEpochs() {
+		return epochs;
+	}
+
+	/**
+	 * runs the cycles until they are all done or training stops early, then says why
+	 * it stopped if it didn't run them all
+	 * @param cycles the most to run
+	 * @param isEpochs true for mini-batch epochs, which are counted and printed with the rows/s
+	 * @param cycle the work of each one
+	 */
+	void run(int cycles, boolean isEpochs, Cycle cycle) {
+		for (int i = 0; i < cycles; i++) {
+			boolean isReporting = isPrintingProgress && (i == 10 || i % 100 == 0);
+			double loss = cycle.train(isReporting || stopping.isMeasuring());
+			if (isEpochs) {
+				epochs++;
+			}
+
+			// timer, with mini-batches the accuracy is from each batch before its update so it lags a little
+			if (isReporting) {
+				long timeElapsed = System.currentTimeMillis() - startTime;
+				printElapsedTime(i + 1, cycles, timeElapsed);
+				if (isEpochs) {
+					System.out.println("Epoch " + epochs + " average accuracy (lower is better) = " + loss
+							+ ", " + (rowsTrained.get() * 1000 / Math.max(timeElapsed, 1)) + " rows/s");
+				} else {
+					System.out.println("Average accuracy (lower is better) = " + loss);
+				}
+			}
+			// backup saves
+			if (i % 10000 == 9999) {
+				cycle.saveBackup(i);
+			}
+			if (stopping.isStopping(loss)) {
+				break;
+			}
+		}
+		if (stopping.getReason() != StopReason.CYCLES) {
+			System.out.println("Stopped after " + stopping.getCycles() + " of " + cycles + " cycles: "
+					+ stopping.getReason());
+		}
+	}
+
+	/**
+	 * the row numbers in order, for shuffle()
+	 */
+	static int[] order(int rows) {
+		int[] order = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * puts the values in a random order (Fisher-Yates)
+	 */
+	void shuffle(int[] values) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = shuffler.nextInt(i + 1);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+	/**
+	 * prints how long training has taken and roughly how long is left
+	 * @param iteration the cycles done
+	 * @param cycles the cycles to do
+	 * @param timeElapsed in milliseconds
+	 */
+	private static void printElapsedTime(int iteration, int cycles, long timeElapsed) {
+		long timeLeft = ((timeElapsed / iteration) * cycles) - timeElapsed;
+		System.out.println(iteration + "/" + cycles + " loops done in "
+				+ (timeElapsed / (1000 * 60 * 60)) + "hours, "
+				+ ((timeElapsed / (1000 * 60)) % 60) + "minutes, "
+				+ ((timeElapsed / 1000) % 60) + "seconds. "
+				+ "Estimated time to finish: "
+				+ (timeLeft / (1000 * 60 * 60)) + "hours, "
+				+ ((timeLeft / (1000 * 60)) % 60) + "minutes, "
+				+ ((timeLeft / 1000) % 60) + "seconds.");
+	}
+}
@@ -0,0 +1,168 @@
+package co.inharmonic.netcore.neuralnet;
+
+import co.inharmonic.netcore.tools.FloatMatrix;
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * Every buffer a training step needs for one batch size and net shape: the layers,
+ * their errors (which become the deltas) and the weight changes. NeuralNetEngine makes
+ * one when it starts training and keeps it while the shapes stay the same, and each
+ * step writes into it in place, so once training is going it doesn't allocate anything
+ * and the garbage collector has nothing to interrupt it for.
+ *
+ * The double buffers are made for Precision.DOUBLE and the float ones for Precision.FLOAT.
+ * The input and expected buffers are only made when the rows are copied in each step,
+ * for off-heap data and mini-batches, full batches use X and y as they are.
+ * Fused Expr cycles don't use the workspace for their block buffers, see
+ * NeuralNetEngine.setFused().
+ */
+final class TrainingWorkspace {
+	final int rows;
+	final int inputs;
+	final int hidden;
+	final int outputs;
+	final boolean isFloat;
+
+	final Matrix inputBatch; // the rows of X for this step, null if X is used in place
+	final Matrix expectedBatch; // the matching rows of y
+	final Matrix hiddenLayer;
+	final Matrix outputLayer;
+	final Matrix outputError; // expected - output, then the output delta
+	final Matrix hiddenError; // the output delta back through synapse1, then the hidden delta
+	final Matrix synapse0Change;
+	final Matrix synapse1Change;
+
+	final FloatMatrix hiddenLayerFloat;
+	final FloatMatrix outputLayerFloat;
+	final FloatMatrix outputErrorFloat;
+	final FloatMatrix hiddenErrorFloat;
+	final FloatMatrix synapse0ChangeFloat;
+	final FloatMatrix synapse1ChangeFloat;
+
+	private Matrix hiddenLayerTransposed; // only for the Strassen weight changes, made when first needed
+	private TrainingWorkspace top; // the last view from top(), kept as the short batch is the same size each epoch
+
+	/**
+	 * @param rows the rows trained on in each step, the batch size
+	 * @param inputs the input columns, synapse0's rows
+	 * @param hidden the hidden neurons
+	 * @param outputs the output columns, synapse1's columns
+	 * @param isCopyingRows true to make inputBatch and expectedBatch
+	 * @param isFloat true for the float buffers rather than the double ones
+	 */
+	TrainingWorkspace(int rows, int inputs, int hidden, int outputs, boolean isCopyingRows, boolean isFloat) {
+		this.rows = rows;
+		this.inputs = inputs;
+		this.hidden = hidden;
+		this.outputs = outputs;
+		this.isFloat = isFloat;
+		inputBatch = isCopyingRows && !isFloat ? new Matrix(rows, inputs) : null;
+		expectedBatch = isCopyingRows && !isFloat ? new Matrix(rows, outputs) : null;
+		hiddenLayer = isFloat ? null : new Matrix(rows, hidden);
+		outputLayer = isFloat ? null : new Matrix(rows, outputs);
+		outputError = isFloat ? null : new Matrix(rows, outputs);
+		hiddenError = isFloat ? null : new Matrix(rows, hidden);
+		synapse0Change = isFloat ? null : new Matrix(inputs, hidden);
+		synapse1Change = isFloat ? null : new Matrix(hidden, outputs);
+		hiddenLayerFloat = isFloat ? new FloatMatrix(rows, hidden) : null;
+		outputLayerFloat = isFloat ? new FloatMatrix(rows, outputs) : null;
+		outputErrorFloat = isFloat ? new FloatMatrix(rows, outputs) : null;
+		hiddenErrorFloat = isFloat ? new FloatMatrix(rows, hidden) : null;
+		synapse0ChangeFloat = isFloat ? new FloatMatrix(inputs, hidden) : null;
+		synapse1ChangeFloat = isFloat ? new FloatMatrix(hidden, outputs) : null;
+	}
+
+	/**
+	 * a view of count rows of the batch buffers from start
+	 * @param isSharingChanges true to use the same weight changes, false to make new ones
+	 */
+	private TrainingWorkspace(TrainingWorkspace workspace, int start, int count, boolean isSharingChanges) {
+		rows = count;
+		inputs = workspace.inputs;
+		hidden = workspace.hidden;
+		outputs = workspace.outputs;
+		isFloat = workspace.isFloat;
+		inputBatch = rows(workspace.inputBatch, start, count);
+		expectedBatch = rows(workspace.expectedBatch, start, count);
+		hiddenLayer = rows(workspace.hiddenLayer, start, count);
+		outputLayer = rows(workspace.outputLayer, start, count);
+		outputError = rows(workspace.outputError, start, count);
+		hiddenError = rows(workspace.hiddenError, start, count);
+		hiddenLayerFloat = rows(workspace.hiddenLayerFloat, start, count);
+		outputLayerFloat = rows(workspace.outputLayerFloat, start, count);
+		outputErrorFloat = rows(workspace.outputErrorFloat, start, count);
+		hiddenErrorFloat = rows(workspace.hiddenErrorFloat, start, count);
+		if (isSharingChanges) {
+			synapse0Change = workspace.synapse0Change;
+			synapse1Change = workspace.synapse1Change;
+			synapse0ChangeFloat = workspace.synapse0ChangeFloat;
+			synapse1ChangeFloat = workspace.synapse1ChangeFloat;
+		} else {
+			synapse0Change = isFloat ? null : new Matrix(inputs, hidden);
+			synapse1Change = isFloat ? null : new Matrix(hidden, outputs);
+			synapse0ChangeFloat = isFloat ? new FloatMatrix(inputs, hidden) : null;
+			synapse1ChangeFloat = isFloat ? new FloatMatrix(hidden, outputs) : null;
+		}
+	}
+
+	/**
+	 * whether this workspace is the right one for training with these sizes
+	 */
+	boolean fits(int rows, int inputs, int hidden, int outputs, boolean isCopyingRows, boolean isFloat) {
+		return this.rows == rows && this.inputs == inputs && this.hidden == hidden && this.outputs == outputs
+				&& (inputBatch != null) == (isCopyingRows && !isFloat) && this.isFloat == isFloat;
+	}
+
+	/**
+	 * the workspace for a step on fewer rows, e.g. the last batch of an epoch.
+	 * The view is kept, so asking for the same count again doesn't allocate.
+	 * @param count from 1 to rows
+	 * @return this if count is rows, otherwise a view of the first count rows
+	 */
+	TrainingWorkspace top(int count) {
+		if (count == rows) {
+			return this;
+		}
+		if (count < 1 || count > rows) {
+			throw new IndexOutOfBoundsException("Can't take " + count + " rows of a " + rows + " row workspace");
+		}
+		if (top == null || top.rows != count) {
+			top = new TrainingWorkspace(this, 0, count, true);
+		}
+		return top;
+	}
+
+	/**
+	 * a view of count rows from start with its own weight changes, so several threads
+	 * can each work out the changes for their own rows at the same time
+	 * @param start
+	 * @param count
+	 * @return
+	 */
+	TrainingWorkspace shard(int start, int count) {
+		if (start < 0 || count < 1 || start + count > rows) {
+			throw new IndexOutOfBoundsException("Can't take " + count + " rows from " + start + " of a "
+					+ rows + " row workspace");
+		}
+		return new TrainingWorkspace(this, start, count, false);
+	}
+
+	/**
+	 * a buffer for hiddenLayer's transpose, for the Strassen products which can't read it in place
+	 */
+	Matrix hiddenLayerTransposed() {
+		if (hiddenLayerTransposed == null) {
+			hiddenLayerTransposed = new Matrix(hidden, rows);
+		}
+		return hiddenLayerTransposed;
+	}
+
+	private static Matrix rows(Matrix matrix, int start, int count) {
+		return matrix == null ? null : matrix.subMatrix(start, 0, count, matrix.getCols());
+	}
+
+	private static FloatMatrix rows(FloatMatrix matrix, int start, int count) {
+		return matrix == null ? null : new FloatMatrix(matrix.getData(),
+				matrix.getOffset() + start * matrix.getStride(), count, matrix.getCols(), matrix.getStride());
+	}
+}
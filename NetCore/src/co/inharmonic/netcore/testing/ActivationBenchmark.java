@@ -0,0 +1,139 @@
+package co.inharmonic.netcore.testing;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import co.inharmonic.netcore.neuralnet.Activation;
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine;
+import co.inharmonic.netcore.tools.FastSigmoidBackend;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixBackend;
+import co.inharmonic.netcore.tools.MatrixBackends;
+import co.inharmonic.netcore.tools.MatrixOps;
+
+/**
+ * Times each Activation in two ways. First it applies the activation to a layer and
+ * works out its delta, printing the fastest of several runs. A "SIGMOID fast" row does
+ * the same for SIGMOID read from FastSigmoid's table. Then it prints the rows a second
+ * a NeuralNetEngine trains with each one as the hidden activation, with mini-batches
+ * on random data.
+ * Arguments, all optional: the layer's rows, its columns (the hidden neurons), and the
+ * epochs to train, 1000 220 50 by default.
+ */
+public class ActivationBenchmark {
+	private static final int RUNS = 20;
+	private static final int TRAINING_ROWS = 2000;
+	private static final int TRAINING_COLS = 30;
+	private static final int BATCH_SIZE = 32;
+
+	private final Random random = new Random(4);
+	private final MatrixBackend backend = MatrixBackends.getDefault();
+
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int cols = args.length > 1 ? Integer.parseInt(args[1]) : 220;
+		int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		MatrixOps.setDefaultPool(null);
+		ActivationBenchmark benchmark = new ActivationBenchmark();
+		benchmark.timeKernels(rows, cols);
+		benchmark.timeTraining(cols, epochs);
+	}
+
+	/**
+	 * prints the fastest apply and delta for each activation on a rows x cols layer
+	 */
+	public void timeKernels(int rows, int cols) {
+		Matrix inputs = random(rows, cols, -4.0, 4.0);
+		Matrix errors = random(rows, cols, -1.0, 1.0);
+		for (Activation activation : Activation.values()) {
+			timeKernel(activation.toString(), activation, backend, inputs, errors);
+		}
+		// see NeuralNetEngine.setFastSigmoid()
+		timeKernel("SIGMOID fast", Activation.SIGMOID, new FastSigmoidBackend(backend), inputs, errors);
+	}
+
+	private void timeKernel(String name, Activation activation, MatrixBackend backend, Matrix inputs,
+			Matrix errors) {
+		Matrix layer = new Matrix(inputs.getRows(), inputs.getCols());
+		Matrix error = new Matrix(errors.getRows(), errors.getCols());
+		long bestApply = Long.MAX_VALUE;
+		long bestDelta = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			copy(inputs, layer);
+			long time = System.nanoTime();
+			activation.apply(layer, backend);
+			bestApply = Math.min(bestApply, System.nanoTime() - time);
+			copy(errors, error);
+			time = System.nanoTime();
+			activation.delta(error, layer, backend);
+			bestDelta = Math.min(bestDelta, System.nanoTime() - time);
+		}
+		System.out.printf("%-12s %dx%d apply %.3fms, delta %.3fms%n", name, layer.getRows(), layer.getCols(),
+				bestApply / 1e6, bestDelta / 1e6);
+	}
+
+	/**
+	 * prints the rows a second trained with each hidden activation, the outputs being SIGMOID
+	 */
+	public void timeTraining(int hidden, int epochs) {
+		Matrix inputs = random(TRAINING_ROWS, TRAINING_COLS, 0.0, 1.0);
+		Matrix outputs = random(TRAINING_ROWS, TRAINING_COLS, 0.0, 1.0);
+		PrintStream out = System.out;
+		PrintStream quiet = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		});
+		System.setOut(quiet);
+		try {
+			// a short run of each first, so the first timed isn't slowed by compiling
+			for (Activation activation : Activation.values()) {
+				train(activation, inputs, outputs, hidden, 2);
+			}
+		} finally {
+			System.setOut(out);
+		}
+		for (Activation activation : Activation.values()) {
+			// trainNet() prints the outputs for all the rows when it has finished
+			System.setOut(quiet);
+			double rowsPerSecond;
+			try {
+				rowsPerSecond = train(activation, inputs, outputs, hidden, epochs);
+			} finally {
+				System.setOut(out);
+			}
+			System.out.printf("%-12s %d_%d_%d batches of %d: %.0f rows/s%n", activation, TRAINING_COLS, hidden,
+					TRAINING_COLS, BATCH_SIZE, rowsPerSecond);
+		}
+	}
+
+	/**
+	 * @return the rows trained a second
+	 */
+	private static double train(Activation activation, Matrix inputs, Matrix outputs, int hidden, int epochs) {
+		NeuralNetEngine net = new NeuralNetEngine(hidden, 0.01, epochs, -0.5, 0.5);
+		net.setPool(null);
+		net.setPrintingProgress(false);
+		net.setBatchSize(BATCH_SIZE);
+		net.setActivations(activation, Activation.SIGMOID);
+		net.setTrainingData(inputs, outputs);
+		long time = System.nanoTime();
+		net.trainNet(true);
+		return net.getRowsTrained() / ((System.nanoTime() - time) / 1e9);
+	}
+
+	private Matrix random(int rows, int cols, double min, double max) {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				matrix.set(i, j, min + random.nextDouble() * (max - min));
+			}
+		}
+		return matrix;
+	}
+
+	private static void copy(Matrix from, Matrix to) {
+		System.arraycopy(from.getData(), 0, to.getData(), 0, from.getRows() * from.getCols());
+	}
+}
@@ -0,0 +1,269 @@
+package co.inharmonic.netcore.testing;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import co.inharmonic.netcore.neuralnet.Activation;
+import co.inharmonic.netcore.neuralnet.DeepNetEngine;
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine;
+import co.inharmonic.netcore.tools.Matrix;
+
+/**
+ * Checks DeepNetEngine: that an {inputs, hidden, outputs} net trains to the same weights
+ * as NeuralNetEngine from the same start, bit for bit, for every Activation; that the
+ * weight changes of a net with two hidden layers match finite differences of the error
+ * for every Activation, in the hidden layers and the output layer; and that sharded
+ * full batches match training on one thread. Prints each case and exits with 1 if any
+ * fails.
+ */
+public class DeepNetCheck {
+	private static final int[] DEEP_SHAPE = {7, 9, 6, 4};
+	// the finite difference step, and how far from it the weight changes can be, relative
+	// to the gradient or to GRADIENT_FLOOR for small ones
+	private static final double STEP = 1e-6;
+	private static final double GRADIENT_TOLERANCE = 1e-5;
+	private static final double GRADIENT_FLOOR = 1e-3;
+	// sharded sums are added up in a different order, so they can differ by rounding
+	private static final double SHARD_TOLERANCE = 1e-10;
+
+	private final Random random = new Random(3);
+	private final PrintStream quiet = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+	});
+	private boolean isFailed = false;
+
+	public static void main(String[] args) {
+		DeepNetCheck check = new DeepNetCheck();
+		check.runChecks();
+		if (check.isFailed) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("All match");
+	}
+
+	public void runChecks() {
+		for (Activation activation : Activation.values()) {
+			checkTwoLayer(activation, activation);
+		}
+		for (Activation activation : Activation.values()) {
+			checkGradient(activation, Activation.SIGMOID);
+			checkGradient(Activation.SIGMOID, activation);
+		}
+		checkShards();
+	}
+
+	/**
+	 * trains a DeepNetEngine and a NeuralNetEngine of the same shape from the same weights
+	 * and compares every weight bit for bit
+	 */
+	private void checkTwoLayer(Activation hidden, Activation output) {
+		int inputs = 8;
+		int hiddenNeurons = 6;
+		int outputs = 5;
+		Matrix X = random(120, inputs, 0.0, 1.0);
+		Matrix y = random(120, outputs, 0.0, 1.0);
+		double[] start = randomWeights(inputs * hiddenNeurons + hiddenNeurons * outputs);
+
+		DeepNetEngine deep = new DeepNetEngine(new int[] {inputs, hiddenNeurons, outputs}, 0.1, 100, -0.5, 0.5);
+		deep.setPool(null);
+		deep.setPrintingProgress(false);
+		deep.setActivations(hidden, output);
+		deep.setTrainingData(X, y);
+		deep.setWeights(start);
+		train(deep);
+
+		TwoLayerNet net = new TwoLayerNet(inputs, hiddenNeurons, outputs, 0.1, 100, start);
+		net.setPool(null);
+		net.setPrintingProgress(false);
+		net.setActivations(hidden, output);
+		net.setTrainingData(X, y);
+		PrintStream out = System.out;
+		System.setOut(quiet);
+		try {
+			net.trainNet(false);
+		} finally {
+			System.setOut(out);
+		}
+
+		double[] expected = net.getWeights();
+		double[] result = deep.getWeights();
+		int differing = 0;
+		for (int i = 0; i < expected.length; i++) {
+			if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(result[i])) {
+				differing++;
+			}
+		}
+		report(hidden + "/" + output + " against NeuralNetEngine: " + differing + " of " + expected.length
+				+ " weights differ", differing == 0);
+	}
+
+	/**
+	 * one full batch cycle at a rate of 1 moves each weight by its change, which should be
+	 * minus the gradient of half the sum of the squared errors
+	 */
+	private void checkGradient(Activation hidden, Activation output) {
+		Matrix X = random(20, DEEP_SHAPE[0], 0.0, 1.0);
+		Matrix y = random(20, DEEP_SHAPE[DEEP_SHAPE.length - 1], 0.0, 1.0);
+		DeepNetEngine deep = new DeepNetEngine(DEEP_SHAPE, 1.0, 1, -0.8, 0.8);
+		deep.setPool(null);
+		deep.setPrintingProgress(false);
+		deep.setActivations(hidden, output);
+		deep.setTrainingData(X, y);
+		double[] start = randomWeights(deep.getWeightCount());
+		deep.setWeights(start);
+		train(deep);
+		double[] changes = deep.getWeights();
+		for (int i = 0; i < changes.length; i++) {
+			changes[i] -= start[i];
+		}
+
+		double worst = 0.0;
+		double[] weights = start.clone();
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = start[i] + STEP;
+			deep.setWeights(weights);
+			double above = error(deep, X, y);
+			weights[i] = start[i] - STEP;
+			deep.setWeights(weights);
+			double below = error(deep, X, y);
+			weights[i] = start[i];
+			double downhill = -(above - below) / (2.0 * STEP);
+			worst = Math.max(worst, Math.abs(downhill - changes[i]) / Math.max(GRADIENT_FLOOR, Math.abs(downhill)));
+		}
+		report(hidden + "/" + output + " gradient: worst relative difference " + worst,
+				worst <= GRADIENT_TOLERANCE);
+	}
+
+	/**
+	 * trains from the same weights on one thread, and in 4 shards with and without a pool
+	 */
+	private void checkShards() {
+		Matrix X = random(120, DEEP_SHAPE[0], 0.0, 1.0);
+		Matrix y = random(120, DEEP_SHAPE[DEEP_SHAPE.length - 1], 0.0, 1.0);
+		double[] start = null;
+		double[][] results = new double[3][];
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (int i = 0; i < results.length; i++) {
+			DeepNetEngine deep = new DeepNetEngine(DEEP_SHAPE, 0.05, 200, -0.5, 0.5);
+			deep.setPrintingProgress(false);
+			deep.setTrainingData(X, y);
+			deep.setPool(i == 2 ? pool : null);
+			deep.setTrainingThreads(i == 0 ? 1 : 4);
+			if (start == null) {
+				start = randomWeights(deep.getWeightCount());
+			}
+			deep.setWeights(start);
+			train(deep);
+			results[i] = deep.getWeights();
+		}
+		pool.shutdown();
+		double difference = 0.0;
+		int differing = 0;
+		for (int i = 0; i < start.length; i++) {
+			difference = Math.max(difference, Math.abs(results[0][i] - results[1][i]));
+			if (Double.doubleToLongBits(results[1][i]) != Double.doubleToLongBits(results[2][i])) {
+				differing++;
+			}
+		}
+		report("4 shards against 1 thread: max difference " + difference, difference <= SHARD_TOLERANCE);
+		report("4 shards on a pool against on the calling thread: " + differing + " weights differ",
+				differing == 0);
+	}
+
+	private void report(String result, boolean isPassing) {
+		System.out.println(result + (isPassing ? "" : " FAILED"));
+		if (!isPassing) {
+			isFailed = true;
+		}
+	}
+
+	/**
+	 * trains the net from the weights it has without printing
+	 */
+	private void train(DeepNetEngine deep) {
+		PrintStream out = System.out;
+		System.setOut(quiet);
+		try {
+			deep.trainNet(false);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * half the sum of the squared errors, which training moves the weights down
+	 */
+	private static double error(DeepNetEngine deep, Matrix X, Matrix y) {
+		Matrix output = deep.runData(X);
+		double error = 0.0;
+		for (int i = 0; i < y.getRows(); i++) {
+			for (int j = 0; j < y.getCols(); j++) {
+				double difference = y.get(i, j) - output.get(i, j);
+				error += 0.5 * difference * difference;
+			}
+		}
+		return error;
+	}
+
+	private double[] randomWeights(int count) {
+		double[] weights = new double[count];
+		for (int i = 0; i < count; i++) {
+			weights[i] = random.nextDouble() - 0.5;
+		}
+		return weights;
+	}
+
+	private Matrix random(int rows, int cols, double min, double max) {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				matrix.set(i, j, min + random.nextDouble() * (max - min));
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * a NeuralNetEngine started from given weights, laid out as DeepNetEngine.getWeights()
+	 */
+	private static class TwoLayerNet extends NeuralNetEngine {
+		TwoLayerNet(int inputs, int hidden, int outputs, double rate, int cycles, double[] weights) {
+			super(hidden, rate, cycles, -0.5, 0.5);
+			synapse0 = new Matrix(inputs, hidden);
+			synapse1 = new Matrix(hidden, outputs);
+			int next = fill(synapse0, weights, 0);
+			fill(synapse1, weights, next);
+		}
+
+		double[] getWeights() {
+			double[] weights = new double[synapse0.getRows() * synapse0.getCols()
+					+ synapse1.getRows() * synapse1.getCols()];
+			int next = read(synapse0, weights, 0);
+			read(synapse1, weights, next);
+			return weights;
+		}
+
+		private static int fill(Matrix matrix, double[] weights, int start) {
+			for (int i = 0; i < matrix.getRows(); i++) {
+				for (int j = 0; j < matrix.getCols(); j++) {
+					matrix.set(i, j, weights[start++]);
+				}
+			}
+			return start;
+		}
+
+		private static int read(Matrix matrix, double[] weights, int start) {
+			for (int i = 0; i < matrix.getRows(); i++) {
+				for (int j = 0; j < matrix.getCols(); j++) {
+					weights[start++] = matrix.get(i, j);
+				}
+			}
+			return start;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package co.inharmonic.netcore.testing;
+
+import java.util.Random;
+
+import co.inharmonic.netcore.neuralnet.Activation;
+import co.inharmonic.netcore.neuralnet.NeuralNetEngine;
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixOps;
+import co.inharmonic.netcore.tools.OffHeapArena;
+import co.inharmonic.netcore.tools.OffHeapMatrix;
+
+/**
+ * Checks that after each way of training a FLOAT net, runData() gives the outputs of
+ * the weights that were trained rather than of a float copy made before. Each case is
+ * compared with a double forward pass through synapse0 and synapse1. Prints each case
+ * and exits with 1 if any is out by more than float rounding.
+ */
+public class RunDataCheck extends NeuralNetEngine {
+	private static final double TOLERANCE = 1e-4;
+
+	private final Random random = new Random(5);
+	private final Matrix inputs = random(200, 8);
+	private final Matrix outputs = random(200, 4);
+	private boolean isFailed = false;
+
+	public RunDataCheck() {
+		super(6, 0.1, 50, -0.5, 0.5, Precision.FLOAT);
+		setPrintingProgress(false);
+		setPool(null);
+		setTrainingData(inputs, outputs);
+	}
+
+	public static void main(String[] args) {
+		RunDataCheck check = new RunDataCheck();
+		check.runChecks();
+		if (check.isFailed) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("All match");
+	}
+
+	public void runChecks() {
+		// full batch in float, then more training with mini-batches, which trains the doubles
+		trainNet(true);
+		check("full batch");
+		setBatchSize(16);
+		trainNet(false);
+		check("then mini-batches");
+		// new weights
+		trainNet(true);
+		check("new net with mini-batches");
+		// Hogwild, the threads' shares are trained one after another without a pool
+		setTrainingThreads(4);
+		setHogwild(true);
+		trainNet(false);
+		check("then Hogwild");
+		setHogwild(false);
+		setTrainingThreads(1);
+		// off the heap, always in double
+		setBatchSize(0);
+		OffHeapArena arena = new OffHeapArena();
+		OffHeapMatrix inputsOffHeap = arena.allocate(inputs.getRows(), inputs.getCols());
+		OffHeapMatrix outputsOffHeap = arena.allocate(outputs.getRows(), outputs.getCols());
+		inputsOffHeap.copyRowsFrom(inputs, 0);
+		outputsOffHeap.copyRowsFrom(outputs, 0);
+		setTrainingData(inputsOffHeap, outputsOffHeap);
+		trainNet(false);
+		arena.close();
+		setTrainingData(inputs, outputs);
+		check("then off-heap");
+	}
+
+	/**
+	 * compares runData() on the inputs, and on the first row alone, with a double forward pass
+	 */
+	private void check(String name) {
+		Matrix hidden = MatrixOps.dot(inputs, synapse0);
+		getHiddenActivation().apply(hidden.getData());
+		Matrix expected = MatrixOps.dot(hidden, synapse1);
+		getOutputActivation().apply(expected.getData());
+		Matrix result = runData(inputs);
+		double[] row = runData(inputs.getRow(0), new double[outputs.getCols()]);
+		double difference = 0.0;
+		for (int i = 0; i < expected.getRows(); i++) {
+			for (int j = 0; j < expected.getCols(); j++) {
+				difference = Math.max(difference, Math.abs(expected.get(i, j) - result.get(i, j)));
+			}
+		}
+		for (int j = 0; j < row.length; j++) {
+			difference = Math.max(difference, Math.abs(expected.get(0, j) - row[j]));
+		}
+		boolean isMatching = difference <= TOLERANCE;
+		System.out.println(name + ": max difference from the trained weights " + difference
+				+ (isMatching ? "" : " STALE"));
+		if (!isMatching) {
+			isFailed = true;
+		}
+	}
+
+	/**
+	 * a matrix of random values from 0 to 1
+	 */
+	private Matrix random(int rows, int cols) {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				matrix.set(i, j, random.nextDouble());
+			}
+		}
+		return matrix;
+	}
+}
@@ -0,0 +1,134 @@
+package co.inharmonic.netcore.testing;
+
+import java.util.Random;
+
+import co.inharmonic.netcore.tools.Matrix;
+import co.inharmonic.netcore.tools.MatrixOps;
+
+/**
+ * Checks MatrixOps.dotStrassen() and dotTransAStrassen() against a plain triple loop,
+ * on square, odd sided and strided view operands, and that the largest difference is
+ * within the error bound in the Strassen class doc. Prints each case and exits with 1
+ * if any is outside it.
+ */
+public class StrassenErrorCheck {
+	private static final double UNIT_ROUNDOFF = Math.pow(2.0, -53);
+
+	private final Random random = new Random(2);
+	private boolean isFailed = false;
+
+	public static void main(String[] args) {
+		StrassenErrorCheck check = new StrassenErrorCheck();
+		check.runChecks();
+		if (check.isFailed) {
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("All within the bound");
+	}
+
+	public void runChecks() {
+		// square
+		checkProduct("1024x1024x1024", random(1024, 1024), random(1024, 1024), new Matrix(1024, 1024));
+		// odd sides, so a row and column are peeled off at each level
+		checkProduct("601x533x577", random(601, 533), random(533, 577), new Matrix(601, 577));
+		// views into bigger matrices, so the stride isn't the number of columns
+		checkProduct("strided 517x611x523", view(random(600, 700), 40, 50, 517, 611),
+				view(random(700, 600), 30, 20, 611, 523), view(new Matrix(560, 600), 10, 30, 517, 523));
+		// the transposed versions
+		checkTransA("transA 1024x1024x1024", random(1024, 1024), random(1024, 1024), new Matrix(1024, 1024));
+		checkTransA("transA 601x533x577", random(533, 601), random(533, 577), new Matrix(601, 577));
+		checkTransA("transA strided 517x611x523", view(random(700, 600), 20, 60, 611, 517),
+				view(random(700, 600), 30, 20, 611, 523), view(new Matrix(560, 600), 10, 30, 517, 523));
+	}
+
+	private void checkProduct(String name, Matrix matrixA, Matrix matrixB, Matrix result) {
+		MatrixOps.dotStrassen(matrixA, matrixB, result, null);
+		compare(name, naive(matrixA, matrixB, false), result, matrixA.getRows(), matrixA.getCols(),
+				matrixB.getCols(), maxAbs(matrixA), maxAbs(matrixB));
+	}
+
+	private void checkTransA(String name, Matrix matrixA, Matrix matrixB, Matrix result) {
+		MatrixOps.dotTransAStrassen(matrixA, matrixB, result, null);
+		compare(name, naive(matrixA, matrixB, true), result, matrixA.getCols(), matrixA.getRows(),
+				matrixB.getCols(), maxAbs(matrixA), maxAbs(matrixB));
+	}
+
+	/**
+	 * prints the largest difference and the bound, and fails if it is over
+	 */
+	private void compare(String name, Matrix expected, Matrix result, int m, int k, int n, double maxA,
+			double maxB) {
+		double difference = 0.0;
+		for (int i = 0; i < expected.getRows(); i++) {
+			for (int j = 0; j < expected.getCols(); j++) {
+				difference = Math.max(difference, Math.abs(expected.get(i, j) - result.get(i, j)));
+			}
+		}
+		double bound = bound(Math.max(m, Math.max(k, n))) * maxA * maxB;
+		boolean isWithin = difference <= bound;
+		System.out.println(name + ": max|C - C'| = " + difference + ", bound " + bound
+				+ (isWithin ? "" : " OUTSIDE THE BOUND"));
+		if (!isWithin) {
+			isFailed = true;
+		}
+	}
+
+	/**
+	 * the bound from the Strassen doc without max|A| * max|B|, for the largest side. The
+	 * quadrants at the bottom can be as small as half the crossover, which gives the
+	 * largest bound.
+	 */
+	private static double bound(int side) {
+		double n0 = MatrixOps.getStrassenCrossover() / 2;
+		return (Math.pow(side / n0, Math.log(18.0) / Math.log(2.0)) * (n0 * n0 + 6.0 * n0) - 6.0 * side)
+				* UNIT_ROUNDOFF;
+	}
+
+	/**
+	 * the plain product, summed in k order
+	 * @param isTransposingA true for A^T.B
+	 */
+	private static Matrix naive(Matrix matrixA, Matrix matrixB, boolean isTransposingA) {
+		int m = isTransposingA ? matrixA.getCols() : matrixA.getRows();
+		int k = isTransposingA ? matrixA.getRows() : matrixA.getCols();
+		Matrix result = new Matrix(m, matrixB.getCols());
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < matrixB.getCols(); j++) {
+				double sum = 0.0;
+				for (int x = 0; x < k; x++) {
+					sum += (isTransposingA ? matrixA.get(x, i) : matrixA.get(i, x)) * matrixB.get(x, j);
+				}
+				result.set(i, j, sum);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * a matrix of random values from -1 to 1
+	 */
+	private Matrix random(int rows, int cols) {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				matrix.set(i, j, random.nextDouble() * 2.0 - 1.0);
+			}
+		}
+		return matrix;
+	}
+
+	private static Matrix view(Matrix matrix, int rowStart, int colStart, int rows, int cols) {
+		return matrix.subMatrix(rowStart, colStart, rows, cols);
+	}
+
+	private static double maxAbs(Matrix matrix) {
+		double max = 0.0;
+		for (int i = 0; i < matrix.getRows(); i++) {
+			for (int j = 0; j < matrix.getCols(); j++) {
+				max = Math.max(max, Math.abs(matrix.get(i, j)));
+			}
+		}
+		return max;
+	}
+}
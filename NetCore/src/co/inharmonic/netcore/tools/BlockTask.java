@@ -0,0 +1,91 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the work of filling in an output matrix across a ForkJoinPool.
+ * The block of rows and columns is halved along its longer side until each
+ * piece is small enough, then each piece is handed to a Block. The pieces
+ * never overlap so they can be written by different threads, and each
+ * element is still worked out in the same way as it would be sequentially.
+ */
+final class BlockTask extends RecursiveAction {
+	private static final long serialVersionUID = 4180523947271936513L;
+	// jobs with fewer multiply-adds than this are not worth splitting up
+	static final long PARALLEL_THRESHOLD = 1L << 20;
+
+	/**
+	 * fills in the part of the output from rows rowStart to rowEnd and columns colStart to colEnd
+	 */
+	interface Block {
+		void run(int rowStart, int rowEnd, int colStart, int colEnd);
+	}
+
+	private final Block block;
+	private final int depth; // the work per output element
+	private final int rowStart;
+	private final int rowEnd;
+	private final int colStart;
+	private final int colEnd;
+	private final long grain; // the most work a single task should do
+
+	private BlockTask(Block block, int depth, int rowStart, int rowEnd, int colStart, int colEnd, long grain) {
+		this.block = block;
+		this.depth = depth;
+		this.rowStart = rowStart;
+		this.rowEnd = rowEnd;
+		this.colStart = colStart;
+		this.colEnd = colEnd;
+		this.grain = grain;
+	}
+
+	/**
+	 * runs the block over the whole output, splitting it across the pool if it is big enough
+	 * @param block
+	 * @param rows the size of the output
+	 * @param cols
+	 * @param depth the work per output element, e.g. the inner dimension of a product
+	 * @param pool if null everything is done on the calling thread
+	 */
+	static void run(Block block, int rows, int cols, int depth, ForkJoinPool pool) {
+		if (!isSplit(rows, cols, depth, pool)) {
+			block.run(0, rows, 0, cols);
+		} else {
+			long grain = Math.max(work(rows, cols, depth) / (4 * pool.getParallelism()), PARALLEL_THRESHOLD / 4);
+			pool.invoke(new BlockTask(block, depth, 0, rows, 0, cols, grain));
+		}
+	}
+
+	/**
+	 * whether run() would split the work across the pool. If not, callers can do the
+	 * work directly and skip making a Block, so small products don't allocate anything.
+	 */
+	static boolean isSplit(int rows, int cols, int depth, ForkJoinPool pool) {
+		return pool != null && pool.getParallelism() >= 2 && work(rows, cols, depth) >= PARALLEL_THRESHOLD;
+	}
+
+	private static long work(int rows, int cols, int depth) {
+		return (long) rows * cols * depth;
+	}
+
+	@Override
+	protected void compute() {
+		int rows = rowEnd - rowStart;
+		int cols = colEnd - colStart;
+		if (work(rows, cols, depth) <= grain || (rows < 8 && cols < 2 * Gemm.N_BLOCK)) {
+			block.run(rowStart, rowEnd, colStart, colEnd);
+		} else if (rows >= 8 && rows * 4 >= cols) {
+			// split the rows, keeping each half a multiple of 4 for the kernels
+			int middle = rowStart + ((rows / 2 + 3) & ~3);
+			invokeAll(split(rowStart, middle, colStart, colEnd), split(middle, rowEnd, colStart, colEnd));
+		} else {
+			int middle = colStart + cols / 2;
+			invokeAll(split(rowStart, rowEnd, colStart, middle), split(rowStart, rowEnd, middle, colEnd));
+		}
+	}
+
+	private BlockTask split(int rowStart, int rowEnd, int colStart, int colEnd) {
+		return new BlockTask(block, depth, rowStart, rowEnd, colStart, colEnd, grain);
+	}
+}
@@ -0,0 +1,127 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The cache-blocked kernels in Gemm with the plain scalar tiles, on the calling
+ * thread only. The elementwise operations are the ones in MatrixOps.
+ * ParallelBackend and VectorisedBackend build on this.
+ */
+public class BlockedBackend implements MatrixBackend {
+
+	@Override
+	public String getName() {
+		return "blocked";
+	}
+
+	/**
+	 * adds op(A).op(B) to C, the hook the subclasses change
+	 */
+	void multiplyAdd(Matrix matrixA, Matrix matrixB, Matrix matrixC, Gemm.Transpose transpose, ForkJoinPool pool) {
+		Gemm.multiplyAdd(matrixA, matrixB, matrixC, transpose, false, null);
+	}
+
+	@Override
+	public Matrix dot(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		ReferenceBackend.checkShape(matrixA.cols == matrixB.rows, matrixA, matrixB);
+		ReferenceBackend.checkResult(result, matrixA.rows, matrixB.cols);
+		result.fill(0.0);
+		multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.NONE, pool);
+		return result;
+	}
+
+	@Override
+	public Matrix dotTransA(Matrix matrixA, Matrix matrixB, Matrix result, boolean accumulate, ForkJoinPool pool) {
+		ReferenceBackend.checkShape(matrixA.rows == matrixB.rows, matrixA, matrixB);
+		ReferenceBackend.checkResult(result, matrixA.cols, matrixB.cols);
+		if (!accumulate) {
+			result.fill(0.0);
+		}
+		multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.A, pool);
+		return result;
+	}
+
+	@Override
+	public Matrix dotTransB(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		ReferenceBackend.checkShape(matrixA.cols == matrixB.cols, matrixA, matrixB);
+		ReferenceBackend.checkResult(result, matrixA.rows, matrixB.rows);
+		result.fill(0.0);
+		multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.B, pool);
+		return result;
+	}
+
+	@Override
+	public Matrix add(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return MatrixOps.add(matrixA, matrixB, result);
+	}
+
+	@Override
+	public Matrix subtract(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return MatrixOps.subtract(matrixA, matrixB, result);
+	}
+
+	@Override
+	public Matrix scale(Matrix matrix, double scalar, Matrix result) {
+		return MatrixOps.scale(matrix, scalar, result);
+	}
+
+	@Override
+	public Matrix addScaledInPlace(Matrix matrixA, Matrix matrixB, double scalar) {
+		return MatrixOps.addScaledInPlace(matrixA, matrixB, scalar);
+	}
+
+	@Override
+	public Matrix sigmoid(Matrix matrix) {
+		double[] data = matrix.data;
+		for (int i = 0; i < matrix.rows; i++) {
+			int row = matrix.offset + i * matrix.stride;
+			for (int j = row; j < row + matrix.cols; j++) {
+				data[j] = 1.0 / (1.0 + Math.exp(-data[j]));
+			}
+		}
+		return matrix;
+	}
+
+	@Override
+	public Matrix sigmoidDelta(Matrix error, Matrix layer) {
+		ReferenceBackend.checkShape(error.isSameShape(layer), error, layer);
+		double[] errorData = error.data;
+		double[] layerData = layer.data;
+		for (int i = 0; i < error.rows; i++) {
+			// straight loops along each row so the JIT can vectorise them
+			int rowError = error.offset + i * error.stride;
+			int rowLayer = layer.offset + i * layer.stride;
+			for (int j = 0; j < error.cols; j++) {
+				double value = layerData[rowLayer + j];
+				errorData[rowError + j] = errorData[rowError + j] * (value * (1.0 - value));
+			}
+		}
+		return error;
+	}
+
+	@Override
+	public double sum(Matrix matrix) {
+		double sum = 0.0;
+		for (int i = 0; i < matrix.rows; i++) {
+			int row = matrix.offset + i * matrix.stride;
+			for (int j = row; j < row + matrix.cols; j++) {
+				sum += matrix.data[j];
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double sumAbsoluteDifference(Matrix matrixA, Matrix matrixB) {
+		ReferenceBackend.checkShape(matrixA.isSameShape(matrixB), matrixA, matrixB);
+		double sum = 0.0;
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				sum += Math.abs(matrixA.data[rowA + j] - matrixB.data[rowB + j]);
+			}
+		}
+		return sum;
+	}
+}
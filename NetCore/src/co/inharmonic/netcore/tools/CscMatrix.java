@@ -0,0 +1,88 @@
+package co.inharmonic.netcore.tools;
+
+/**
+ * A sparse matrix in compressed sparse column (CSC) form, which only stores the non-zero values.
+ * The non-zero values of column j are values[colStarts[j]] up to values[colStarts[j + 1]],
+ * in row order, and rowIndices[] holds the row each one is in.
+ * This is the same layout as the CSR form of the transpose, so it is used where a sparse
+ * matrix is multiplied as its transpose, or from the right, see MatrixOps.density()
+ */
+public class CscMatrix {
+	private final int rows;
+	private final int cols;
+	final int[] colStarts;
+	final int[] rowIndices;
+	final double[] values;
+	
+	private CscMatrix(int rows, int cols, int[] colStarts, int[] rowIndices, double[] values) {
+		this.rows = rows;
+		this.cols = cols;
+		this.colStarts = colStarts;
+		this.rowIndices = rowIndices;
+		this.values = values;
+	}
+	
+	/**
+	 * creates a sparse copy of the matrix, leaving out the zeros
+	 * @param matrix
+	 * @return
+	 */
+	public static CscMatrix fromDense(Matrix matrix) {
+		int rows = matrix.getRows();
+		int cols = matrix.getCols();
+		int[] colStarts = new int[cols + 1];
+		int nonZeros = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				if (matrix.get(i, j) != 0.0) {
+					nonZeros++;
+				}
+			}
+		}
+		int[] rowIndices = new int[nonZeros];
+		double[] values = new double[nonZeros];
+		int position = 0;
+		for (int j = 0; j < cols; j++) {
+			colStarts[j] = position;
+			for (int i = 0; i < rows; i++) {
+				if (matrix.get(i, j) != 0.0) {
+					rowIndices[position] = i;
+					values[position] = matrix.get(i, j);
+					position++;
+				}
+			}
+		}
+		colStarts[cols] = position;
+		return new CscMatrix(rows, cols, colStarts, rowIndices, values);
+	}
+	
+	/**
+	 * returns a new dense matrix, zeros and all
+	 * @return
+	 */
+	public Matrix toDense() {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int j = 0; j < cols; j++) {
+			for (int position = colStarts[j]; position < colStarts[j + 1]; position++) {
+				matrix.set(rowIndices[position], j, values[position]);
+			}
+		}
+		return matrix;
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getCols() {
+		return cols;
+	}
+	
+	/**
+	 * the number of values that are not zero
+	 * @return
+	 */
+	public int getNonZeros() {
+		return values.length;
+	}
+}
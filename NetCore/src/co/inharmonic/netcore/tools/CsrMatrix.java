@@ -0,0 +1,87 @@
+package co.inharmonic.netcore.tools;
+
+/**
+ * A sparse matrix in compressed sparse row (CSR) form, which only stores the non-zero values.
+ * The non-zero values of row i are values[rowStarts[i]] up to values[rowStarts[i + 1]],
+ * in column order, and columns[] holds the column each one is in.
+ * Use for matrices that are mostly zeros, like one-hot training outputs, see MatrixOps.density()
+ */
+public class CsrMatrix {
+	private final int rows;
+	private final int cols;
+	final int[] rowStarts;
+	final int[] columns;
+	final double[] values;
+	
+	private CsrMatrix(int rows, int cols, int[] rowStarts, int[] columns, double[] values) {
+		this.rows = rows;
+		this.cols = cols;
+		this.rowStarts = rowStarts;
+		this.columns = columns;
+		this.values = values;
+	}
+	
+	/**
+	 * creates a sparse copy of the matrix, leaving out the zeros
+	 * @param matrix
+	 * @return
+	 */
+	public static CsrMatrix fromDense(Matrix matrix) {
+		int rows = matrix.getRows();
+		int cols = matrix.getCols();
+		int[] rowStarts = new int[rows + 1];
+		int nonZeros = 0;
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				if (matrix.get(i, j) != 0.0) {
+					nonZeros++;
+				}
+			}
+		}
+		int[] columns = new int[nonZeros];
+		double[] values = new double[nonZeros];
+		int position = 0;
+		for (int i = 0; i < rows; i++) {
+			rowStarts[i] = position;
+			for (int j = 0; j < cols; j++) {
+				if (matrix.get(i, j) != 0.0) {
+					columns[position] = j;
+					values[position] = matrix.get(i, j);
+					position++;
+				}
+			}
+		}
+		rowStarts[rows] = position;
+		return new CsrMatrix(rows, cols, rowStarts, columns, values);
+	}
+	
+	/**
+	 * returns a new dense matrix, zeros and all
+	 * @return
+	 */
+	public Matrix toDense() {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int position = rowStarts[i]; position < rowStarts[i + 1]; position++) {
+				matrix.set(i, columns[position], values[position]);
+			}
+		}
+		return matrix;
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getCols() {
+		return cols;
+	}
+	
+	/**
+	 * the number of values that are not zero
+	 * @return
+	 */
+	public int getNonZeros() {
+		return values.length;
+	}
+}
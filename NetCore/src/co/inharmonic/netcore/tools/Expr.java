@@ -0,0 +1,576 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A matrix expression that is only worked out when eval() or evalInto() is called,
+ * so a whole line of matrix maths can be done in one pass without a new matrix for
+ * each step. For example the weight update
+ *
+ *   Expr.of(synapse1).plus(Expr.t(layer1).times(layer2Delta).scale(rate)).evalInto(synapse1)
+ *
+ * reads synapse1 once and writes it once, rather than making the product, the scaled
+ * product and the sum as three new matrices and going over each of them again.
+ *
+ * The output is worked out a block of M_BLOCK rows by N_BLOCK columns at a time. Any
+ * products in the expression are multiplied into a block-sized buffer with the Gemm
+ * kernels, then the elementwise steps (plus, minus, scale, sigmoid, sigmoidDelta) are
+ * run along each row of the block while it is still in cache and written straight to
+ * the output. Large outputs are split across the pool by BlockTask.
+ *
+ * The expression is a DAG: the same Expr can be used more than once and is only
+ * worked out once per row. The operands of a product must be matrices, so a product
+ * of expressions, or the transpose of one, is evaluated into a new matrix first.
+ *
+ * Tolerance: each value goes through the same double operations in the same order as
+ * the separate MatrixOps methods, and the products are still summed in k order, so the
+ * results are identical to them.
+ */
+public abstract class Expr {
+	final int rows;
+	final int cols;
+
+	Expr(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+	}
+
+	/**
+	 * the matrix itself, it is read when the expression is evaluated, not copied now
+	 * @param matrix
+	 * @return
+	 */
+	public static Expr of(Matrix matrix) {
+		return new Leaf(matrix, null, false);
+	}
+
+	/**
+	 * the transpose of the matrix, read in place rather than copied
+	 * @param matrix
+	 * @return
+	 */
+	public static Expr t(Matrix matrix) {
+		return new Leaf(matrix, null, true);
+	}
+
+	/**
+	 * the transpose of this expression
+	 * @return
+	 */
+	public Expr t() {
+		return new Leaf(null, this, true);
+	}
+
+	/**
+	 * the matrix product of this and other
+	 * @param other
+	 * @return
+	 */
+	public Expr times(Expr other) {
+		if (cols != other.rows) {
+			throw new IllegalArgumentException("Matrices can't be multiplied: " + rows + "x" + cols
+					+ ", " + other.rows + "x" + other.cols);
+		}
+		return new Product(this, other);
+	}
+
+	public Expr times(Matrix other) {
+		return times(of(other));
+	}
+
+	public Expr plus(Expr other) {
+		return new Elementwise(Elementwise.PLUS, this, other, 0.0);
+	}
+
+	public Expr plus(Matrix other) {
+		return plus(of(other));
+	}
+
+	public Expr minus(Expr other) {
+		return new Elementwise(Elementwise.MINUS, this, other, 0.0);
+	}
+
+	public Expr minus(Matrix other) {
+		return minus(of(other));
+	}
+
+	public Expr scale(double scalar) {
+		return new Elementwise(Elementwise.SCALE, this, null, scalar);
+	}
+
+	/**
+	 * 1 / (1 + e^-x) of each value
+	 * @return
+	 */
+	public Expr sigmoid() {
+		return new Elementwise(Elementwise.SIGMOID, this, null, 0.0);
+	}
+
+	/**
+	 * the delta error for a sigmoid layer, this expression being the error:
+	 * error * (layer * (1 - layer)) for each value
+	 * @param layer the output of the sigmoid
+	 * @return
+	 */
+	public Expr sigmoidDelta(Expr layer) {
+		return new Elementwise(Elementwise.SIGMOID_DELTA, this, layer, 0.0);
+	}
+
+	public Expr sigmoidDelta(Matrix layer) {
+		return sigmoidDelta(of(layer));
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * works out the expression into a new matrix, using MatrixOps' default pool
+	 * @return
+	 */
+	public Matrix eval() {
+		return eval(MatrixOps.getDefaultPool());
+	}
+
+	/**
+	 * works out the expression into a new matrix
+	 * @param pool the pool to use, or null to work on the calling thread
+	 * @return
+	 */
+	public Matrix eval(ForkJoinPool pool) {
+		return evalInto(new Matrix(rows, cols), pool);
+	}
+
+	/**
+	 * works out the expression into result, using MatrixOps' default pool
+	 * @param result
+	 * @return result
+	 */
+	public Matrix evalInto(Matrix result) {
+		return evalInto(result, MatrixOps.getDefaultPool());
+	}
+
+	/**
+	 * works out the expression into result. The result can be one of the matrices the
+	 * elementwise steps read, e.g. x = x + y, but if a product reads it, or it is read
+	 * at a different position, the expression is worked out into a new matrix and copied.
+	 * @param result overwritten with the value of the expression
+	 * @param pool the pool to use, or null to work on the calling thread
+	 * @return result
+	 */
+	public Matrix evalInto(Matrix result, ForkJoinPool pool) {
+		if (result.rows != rows || result.cols != cols) {
+			throw new IllegalArgumentException("Result matrix is " + result.rows + "x" + result.cols
+					+ ", should be " + rows + "x" + cols);
+		}
+		final Map<Expr, Matrix> matrices = new IdentityHashMap<Expr, Matrix>();
+		resolve(matrices, pool);
+		if (isReading(result, matrices)) {
+			Matrix copy = evalInto(new Matrix(rows, cols), pool);
+			for (int i = 0; i < rows; i++) {
+				result.setRow(i, copy.getRow(i));
+			}
+			return result;
+		}
+		final Matrix output = result;
+		final boolean vectorised = MatrixOps.isVectorised();
+		BlockTask.run(new BlockTask.Block() {
+			@Override
+			public void run(int rowStart, int rowEnd, int colStart, int colEnd) {
+				evalBlock(output, matrices, vectorised, rowStart, rowEnd, colStart, colEnd);
+			}
+		}, rows, cols, Math.max(1, depth(new IdentityHashMap<Expr, Boolean>())), pool);
+		return result;
+	}
+
+	private void evalBlock(Matrix result, Map<Expr, Matrix> matrices, boolean vectorised,
+			int rowStart, int rowEnd, int colStart, int colEnd) {
+		Row root = newRow(matrices, new IdentityHashMap<Expr, Row>(), vectorised);
+		for (int jj = colStart; jj < colEnd; jj += Gemm.N_BLOCK) {
+			int width = Math.min(Gemm.N_BLOCK, colEnd - jj);
+			for (int ii = rowStart; ii < rowEnd; ii += Gemm.M_BLOCK) {
+				int height = Math.min(Gemm.M_BLOCK, rowEnd - ii);
+				root.prepare(ii, height, jj, width);
+				for (int i = ii; i < ii + height; i++) {
+					root.loadInto(i, result.data, result.offset + i * result.stride + jj);
+				}
+			}
+		}
+	}
+
+	/**
+	 * evaluates any sub-expressions that have to be matrices into matrices
+	 */
+	abstract void resolve(Map<Expr, Matrix> matrices, ForkJoinPool pool);
+
+	/**
+	 * true if the result shares storage with a matrix read other than elementwise at the same position
+	 */
+	abstract boolean isReading(Matrix result, Map<Expr, Matrix> matrices);
+
+	/**
+	 * the multiply-adds per output value, used to decide whether to split the work
+	 */
+	abstract int depth(Map<Expr, Boolean> counted);
+
+	/**
+	 * creates the per-block state for working out the expression a row at a time
+	 */
+	abstract Row newRow(Map<Expr, Matrix> matrices, Map<Expr, Row> rows, boolean vectorised);
+
+	/**
+	 * the most columns of a block, the buffers are no bigger than needed for small matrices
+	 */
+	int blockWidth() {
+		return Math.min(Gemm.N_BLOCK, cols);
+	}
+
+	/**
+	 * works out one part of a row of an expression for the block being evaluated
+	 */
+	abstract static class Row {
+		int colStart;
+		int width;
+		double[] data;
+
+		/**
+		 * called before each block of rows, products are multiplied here
+		 */
+		void prepare(int rowStart, int height, int colStart, int width) {
+			this.colStart = colStart;
+			this.width = width;
+		}
+
+		/**
+		 * works out the row and returns where it starts in data
+		 */
+		abstract int load(int row);
+
+		/**
+		 * works out the row into target
+		 */
+		void loadInto(int row, double[] target, int targetOffset) {
+			int position = load(row);
+			System.arraycopy(data, position, target, targetOffset, width);
+		}
+	}
+
+	// Expression types ***********************************************************
+
+	/**
+	 * a matrix, or an expression evaluated into a matrix, possibly read as its transpose
+	 */
+	private static final class Leaf extends Expr {
+		private final Matrix matrix;
+		private final Expr source;
+		private final boolean transposed;
+
+		Leaf(Matrix matrix, Expr source, boolean transposed) {
+			super(transposed ? rowsOf(matrix, source, false) : rowsOf(matrix, source, true),
+					transposed ? rowsOf(matrix, source, true) : rowsOf(matrix, source, false));
+			this.matrix = matrix;
+			this.source = source;
+			this.transposed = transposed;
+		}
+
+		private static int rowsOf(Matrix matrix, Expr source, boolean rows) {
+			if (matrix != null) {
+				return rows ? matrix.rows : matrix.cols;
+			}
+			return rows ? source.rows : source.cols;
+		}
+
+		@Override
+		public Expr t() {
+			return matrix != null ? new Leaf(matrix, null, !transposed) : super.t();
+		}
+
+		Matrix getMatrix(Map<Expr, Matrix> matrices) {
+			return matrix != null ? matrix : matrices.get(source);
+		}
+
+		@Override
+		void resolve(Map<Expr, Matrix> matrices, ForkJoinPool pool) {
+			if (matrix == null && !matrices.containsKey(source)) {
+				matrices.put(source, source.eval(pool));
+			}
+		}
+
+		@Override
+		boolean isReading(Matrix result, Map<Expr, Matrix> matrices) {
+			Matrix read = getMatrix(matrices);
+			return read.data == result.data
+					&& (transposed || read.offset != result.offset || read.stride != result.stride);
+		}
+
+		@Override
+		int depth(Map<Expr, Boolean> counted) {
+			return 0;
+		}
+
+		@Override
+		Row newRow(Map<Expr, Matrix> matrices, Map<Expr, Row> rows, boolean vectorised) {
+			final Matrix read = getMatrix(matrices);
+			if (!transposed) {
+				return new Row() {
+					{
+						data = read.data;
+					}
+
+					@Override
+					int load(int row) {
+						return read.offset + row * read.stride + colStart;
+					}
+				};
+			}
+			return new Row() {
+				{
+					data = new double[blockWidth()];
+				}
+
+				@Override
+				int load(int row) {
+					// row of the transpose is a column of the matrix
+					int position = read.offset + colStart * read.stride + row;
+					for (int j = 0; j < width; j++) {
+						data[j] = read.data[position + j * read.stride];
+					}
+					return 0;
+				}
+			};
+		}
+	}
+
+	/**
+	 * the product of two matrices, multiplied a block at a time by Gemm
+	 */
+	private static final class Product extends Expr {
+		private final Expr left;
+		private final Expr right;
+
+		Product(Expr left, Expr right) {
+			super(left.rows, right.cols);
+			this.left = asLeaf(left);
+			this.right = asLeaf(right);
+		}
+
+		/**
+		 * products can only read matrices, anything else is evaluated first
+		 */
+		private static Expr asLeaf(Expr expr) {
+			return expr instanceof Leaf ? expr : new Leaf(null, expr, false);
+		}
+
+		@Override
+		void resolve(Map<Expr, Matrix> matrices, ForkJoinPool pool) {
+			left.resolve(matrices, pool);
+			right.resolve(matrices, pool);
+			Leaf leafLeft = (Leaf) left;
+			Leaf leafRight = (Leaf) right;
+			if (leafLeft.transposed && leafRight.transposed && !matrices.containsKey(right)) {
+				// Gemm can only read one side as its transpose
+				matrices.put(right, MatrixOps.transpose(leafRight.getMatrix(matrices)));
+			}
+		}
+
+		@Override
+		boolean isReading(Matrix result, Map<Expr, Matrix> matrices) {
+			return operand(left, matrices).data == result.data || operand(right, matrices).data == result.data;
+		}
+
+		@Override
+		int depth(Map<Expr, Boolean> counted) {
+			if (counted.put(this, Boolean.TRUE) != null) {
+				return 0;
+			}
+			return left.cols;
+		}
+
+		/**
+		 * the matrix to multiply, as stored
+		 */
+		private static Matrix operand(Expr expr, Map<Expr, Matrix> matrices) {
+			Matrix copy = matrices.get(expr);
+			return copy != null ? copy : ((Leaf) expr).getMatrix(matrices);
+		}
+
+		@Override
+		Row newRow(Map<Expr, Matrix> matrices, Map<Expr, Row> rows, final boolean vectorised) {
+			Row existing = rows.get(this);
+			if (existing != null) {
+				return existing;
+			}
+			final Matrix matrixA = operand(left, matrices);
+			final Matrix matrixB = operand(right, matrices);
+			// a transposed right hand side that was copied above is no longer transposed
+			final boolean transposeA = ((Leaf) left).transposed;
+			final boolean transposeB = ((Leaf) right).transposed && !matrices.containsKey(right);
+			final int depth = left.cols;
+			final int stride = blockWidth();
+			final int size = Math.min(Gemm.M_BLOCK, getRows()) * stride;
+			Row row = new Row() {
+				private int rowStart = -1;
+
+				{
+					data = new double[size];
+				}
+
+				@Override
+				void prepare(int rowStart, int height, int colStart, int width) {
+					if (rowStart == this.rowStart && colStart == this.colStart) {
+						// already multiplied for another expression that uses it
+						return;
+					}
+					super.prepare(rowStart, height, colStart, width);
+					this.rowStart = rowStart;
+					Matrix block = new Matrix(data, 0, height, width, stride);
+					block.fill(0.0);
+					Matrix partA = transposeA ? matrixA.subMatrix(0, rowStart, depth, height)
+							: matrixA.subMatrix(rowStart, 0, height, depth);
+					Matrix partB = transposeB ? matrixB.subMatrix(colStart, 0, width, depth)
+							: matrixB.subMatrix(0, colStart, depth, width);
+					Gemm.Transpose transpose = transposeA ? Gemm.Transpose.A
+							: transposeB ? Gemm.Transpose.B : Gemm.Transpose.NONE;
+					Gemm.multiplyAdd(partA, partB, block, transpose, vectorised, 0, height, 0, width);
+				}
+
+				@Override
+				int load(int row) {
+					return (row - rowStart) * stride;
+				}
+			};
+			rows.put(this, row);
+			return row;
+		}
+	}
+
+	/**
+	 * the elementwise steps, worked out along a row into a small buffer
+	 */
+	private static final class Elementwise extends Expr {
+		static final int PLUS = 0;
+		static final int MINUS = 1;
+		static final int SCALE = 2;
+		static final int SIGMOID = 3;
+		static final int SIGMOID_DELTA = 4;
+
+		private final int operation;
+		private final Expr left;
+		private final Expr right;
+		private final double scalar;
+
+		Elementwise(int operation, Expr left, Expr right, double scalar) {
+			super(left.rows, left.cols);
+			if (right != null && (right.rows != left.rows || right.cols != left.cols)) {
+				throw new IllegalArgumentException("Matricis are not the same size: " + left.rows + "x" + left.cols
+						+ ", " + right.rows + "x" + right.cols);
+			}
+			this.operation = operation;
+			this.left = left;
+			this.right = right;
+			this.scalar = scalar;
+		}
+
+		@Override
+		void resolve(Map<Expr, Matrix> matrices, ForkJoinPool pool) {
+			left.resolve(matrices, pool);
+			if (right != null) {
+				right.resolve(matrices, pool);
+			}
+		}
+
+		@Override
+		boolean isReading(Matrix result, Map<Expr, Matrix> matrices) {
+			return left.isReading(result, matrices) || (right != null && right.isReading(result, matrices));
+		}
+
+		@Override
+		int depth(Map<Expr, Boolean> counted) {
+			return 1 + left.depth(counted) + (right != null ? right.depth(counted) : 0);
+		}
+
+		@Override
+		Row newRow(Map<Expr, Matrix> matrices, Map<Expr, Row> rows, boolean vectorised) {
+			Row existing = rows.get(this);
+			if (existing != null) {
+				return existing;
+			}
+			final Row rowLeft = left.newRow(matrices, rows, vectorised);
+			final Row rowRight = right != null ? right.newRow(matrices, rows, vectorised) : null;
+			Row row = new Row() {
+				// the row last worked out, so a shared expression is only worked out once
+				private int loaded = -1;
+
+				{
+					data = new double[blockWidth()];
+				}
+
+				@Override
+				void prepare(int rowStart, int height, int colStart, int width) {
+					super.prepare(rowStart, height, colStart, width);
+					loaded = -1;
+					rowLeft.prepare(rowStart, height, colStart, width);
+					if (rowRight != null) {
+						rowRight.prepare(rowStart, height, colStart, width);
+					}
+				}
+
+				@Override
+				int load(int row) {
+					if (loaded != row) {
+						apply(row, data, 0);
+						loaded = row;
+					}
+					return 0;
+				}
+
+				@Override
+				void loadInto(int row, double[] target, int targetOffset) {
+					apply(row, target, targetOffset);
+				}
+
+				private void apply(int row, double[] target, int targetOffset) {
+					int positionA = rowLeft.load(row);
+					double[] a = rowLeft.data;
+					int positionB = rowRight != null ? rowRight.load(row) : 0;
+					double[] b = rowRight != null ? rowRight.data : null;
+					switch (operation) {
+					case PLUS:
+						for (int j = 0; j < width; j++) {
+							target[targetOffset + j] = a[positionA + j] + b[positionB + j];
+						}
+						break;
+					case MINUS:
+						for (int j = 0; j < width; j++) {
+							target[targetOffset + j] = a[positionA + j] - b[positionB + j];
+						}
+						break;
+					case SCALE:
+						for (int j = 0; j < width; j++) {
+							target[targetOffset + j] = a[positionA + j] * scalar;
+						}
+						break;
+					case SIGMOID:
+						for (int j = 0; j < width; j++) {
+							target[targetOffset + j] = 1.0 / (1.0 + Math.exp(-a[positionA + j]));
+						}
+						break;
+					default:
+						for (int j = 0; j < width; j++) {
+							double value = b[positionB + j];
+							target[targetOffset + j] = a[positionA + j] * (value * (1.0 - value));
+						}
+					}
+				}
+			};
+			rows.put(this, row);
+			return row;
+		}
+	}
+}
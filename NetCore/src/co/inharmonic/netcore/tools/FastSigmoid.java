@@ -0,0 +1,106 @@
+package co.inharmonic.netcore.tools;
+
+/**
+ * An approximate sigmoid, 1 / (1 + e^-x), read from a table of exact values every 1/64
+ * from -16 to 16 and interpolated in a straight line between them, so it is worked out
+ * without calling Math.exp(). Outside the table it returns the values at its ends,
+ * within 1.2e-7 of 0 and 1.
+ *
+ * The largest difference from the exact sigmoid is MAX_ERROR, about 2.9e-6, near x = 1.3.
+ * The results are always from 0 to 1 and never go down as x goes up, like the exact one.
+ *
+ * It is quicker than Math.exp() even though the table lookups can't be vectorised,
+ * ActivationBenchmark in co.inharmonic.netcore.testing times the sigmoid either way.
+ */
+public final class FastSigmoid {
+	/**
+	 * the largest difference from the exact sigmoid, measured every 1e-5 from -40 to 40
+	 */
+	public static final double MAX_ERROR = 2.94e-6;
+	private static final double RANGE = 16.0; // the table runs from -RANGE to RANGE
+	private static final int STEPS = 64; // table entries for each unit of x
+	private static final int SIZE = (int) (2 * RANGE * STEPS);
+	private static final double[] TABLE = new double[SIZE + 2]; // an extra entry so the last step can be interpolated
+
+	static {
+		for (int i = 0; i < TABLE.length; i++) {
+			TABLE[i] = 1.0 / (1.0 + Math.exp(-(-RANGE + (double) i / STEPS)));
+		}
+	}
+
+	private FastSigmoid() {
+	}
+
+	/**
+	 * @param x
+	 * @return about 1 / (1 + e^-x), NaN if x is NaN
+	 */
+	public static double sigmoid(double x) {
+		if (x <= -RANGE) {
+			return TABLE[0];
+		}
+		if (x >= RANGE) {
+			return TABLE[SIZE];
+		}
+		double position = (x + RANGE) * STEPS;
+		int i = (int) position;
+		double fraction = position - i;
+		return TABLE[i] + fraction * (TABLE[i + 1] - TABLE[i]);
+	}
+
+	/**
+	 * applies the sigmoid to every value, the matrix is changed
+	 * @param matrix
+	 * @return matrix
+	 */
+	public static Matrix sigmoid(Matrix matrix) {
+		double[] data = matrix.data;
+		for (int i = 0; i < matrix.rows; i++) {
+			int row = matrix.offset + i * matrix.stride;
+			for (int j = row; j < row + matrix.cols; j++) {
+				data[j] = sigmoid(data[j]);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * applies the sigmoid to every value, the matrix is changed
+	 * @param matrix
+	 * @return matrix
+	 */
+	public static FloatMatrix sigmoid(FloatMatrix matrix) {
+		float[] data = matrix.data;
+		for (int i = 0; i < matrix.rows; i++) {
+			int row = matrix.offset + i * matrix.stride;
+			for (int j = row; j < row + matrix.cols; j++) {
+				data[j] = (float) sigmoid(data[j]);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * applies the sigmoid to every value, the array is changed
+	 * @param values
+	 * @return values
+	 */
+	public static double[] sigmoid(double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = sigmoid(values[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * applies the sigmoid to every value, the array is changed
+	 * @param values
+	 * @return values
+	 */
+	public static float[] sigmoid(float[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (float) sigmoid(values[i]);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,89 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Another backend with its sigmoid() replaced by FastSigmoid, everything else is passed
+ * straight on to it. It wraps a backend rather than being one, so it isn't listed with
+ * the others or chosen by name, see NeuralNetEngine.setFastSigmoid().
+ */
+public class FastSigmoidBackend implements MatrixBackend {
+	private final MatrixBackend backend;
+
+	/**
+	 * @param backend does everything but the sigmoid
+	 */
+	public FastSigmoidBackend(MatrixBackend backend) {
+		if (backend == null) {
+			throw new IllegalArgumentException("The fast sigmoid needs a backend to wrap");
+		}
+		this.backend = backend;
+	}
+
+	/**
+	 * @return the backend doing everything but the sigmoid
+	 */
+	public MatrixBackend getBackend() {
+		return backend;
+	}
+
+	@Override
+	public String getName() {
+		return backend.getName() + "+fastsigmoid";
+	}
+
+	@Override
+	public Matrix dot(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		return backend.dot(matrixA, matrixB, result, pool);
+	}
+
+	@Override
+	public Matrix dotTransA(Matrix matrixA, Matrix matrixB, Matrix result, boolean accumulate, ForkJoinPool pool) {
+		return backend.dotTransA(matrixA, matrixB, result, accumulate, pool);
+	}
+
+	@Override
+	public Matrix dotTransB(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		return backend.dotTransB(matrixA, matrixB, result, pool);
+	}
+
+	@Override
+	public Matrix add(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return backend.add(matrixA, matrixB, result);
+	}
+
+	@Override
+	public Matrix subtract(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return backend.subtract(matrixA, matrixB, result);
+	}
+
+	@Override
+	public Matrix scale(Matrix matrix, double scalar, Matrix result) {
+		return backend.scale(matrix, scalar, result);
+	}
+
+	@Override
+	public Matrix addScaledInPlace(Matrix matrixA, Matrix matrixB, double scalar) {
+		return backend.addScaledInPlace(matrixA, matrixB, scalar);
+	}
+
+	@Override
+	public Matrix sigmoid(Matrix matrix) {
+		return FastSigmoid.sigmoid(matrix);
+	}
+
+	@Override
+	public Matrix sigmoidDelta(Matrix error, Matrix layer) {
+		return backend.sigmoidDelta(error, layer);
+	}
+
+	@Override
+	public double sum(Matrix matrix) {
+		return backend.sum(matrix);
+	}
+
+	@Override
+	public double sumAbsoluteDifference(Matrix matrixA, Matrix matrixB) {
+		return backend.sumAbsoluteDifference(matrixA, matrixB);
+	}
+}
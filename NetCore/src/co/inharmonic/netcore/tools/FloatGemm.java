@@ -0,0 +1,255 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The single precision versions of the Gemm kernels, used by MatrixOps for
+ * FloatMatrix. The loops, tiling, transposes and fork/join splitting are the
+ * same as in Gemm, see there for how they work. Each B tile is twice as wide
+ * so it still takes about 256KB of cache, and the vectorised kernel does twice
+ * as many columns per SIMD instruction.
+ *
+ * Each element of C is summed in float, in increasing k order, so the results
+ * match a textbook i-j-k loop in float exactly and are the same for any pool size.
+ * They differ from the double kernels by float rounding, see NeuralNetEngine.Precision.
+ */
+final class FloatGemm {
+	static final int M_BLOCK = 64;
+	static final int K_BLOCK = 128;
+	static final int N_BLOCK = 512;
+
+	private FloatGemm() {
+	}
+
+	/**
+	 * adds op(A).op(B) to C, splitting the work across the pool if it is big enough
+	 * @param matrixA
+	 * @param matrixB
+	 * @param matrixC
+	 * @param transpose which of A or B to read as its transpose
+	 * @param pool if null the multiply is done on the calling thread
+	 */
+	static void multiplyAdd(final FloatMatrix matrixA, final FloatMatrix matrixB, final FloatMatrix matrixC,
+			final Gemm.Transpose transpose, ForkJoinPool pool) {
+		final boolean vectorised = MatrixOps.isVectorised();
+		int depth = transpose == Gemm.Transpose.A ? matrixA.rows : matrixA.cols;
+		if (!BlockTask.isSplit(matrixC.rows, matrixC.cols, depth, pool)) {
+			multiplyAdd(matrixA, matrixB, matrixC, transpose, vectorised, 0, matrixC.rows, 0, matrixC.cols);
+			return;
+		}
+		BlockTask.run(new BlockTask.Block() {
+			@Override
+			public void run(int rowStart, int rowEnd, int colStart, int colEnd) {
+				multiplyAdd(matrixA, matrixB, matrixC, transpose, vectorised, rowStart, rowEnd, colStart, colEnd);
+			}
+		}, matrixC.rows, matrixC.cols, depth, pool);
+	}
+
+	/**
+	 * adds op(A).op(B) to the part of C from rows rowStart to rowEnd and columns colStart to colEnd
+	 */
+	static void multiplyAdd(FloatMatrix matrixA, FloatMatrix matrixB, FloatMatrix matrixC, Gemm.Transpose transpose, boolean vectorised,
+			int rowStart, int rowEnd, int colStart, int colEnd) {
+		if (transpose == Gemm.Transpose.B) {
+			// the dot products are sums into a single value, which the auto-vectoriser
+			// won't reorder, so there is no separate vectorised form
+			multiplyAddTransB(matrixA, matrixB, matrixC, rowStart, rowEnd, colStart, colEnd);
+			return;
+		}
+		// element (i, k) of op(A) is at offset + i * rowStepA + k * colStepA
+		int rowStepA = transpose == Gemm.Transpose.A ? 1 : matrixA.stride;
+		int colStepA = transpose == Gemm.Transpose.A ? matrixA.stride : 1;
+		int depth = transpose == Gemm.Transpose.A ? matrixA.rows : matrixA.cols;
+		for (int jj = colStart; jj < colEnd; jj += N_BLOCK) {
+			int jEnd = Math.min(jj + N_BLOCK, colEnd);
+			for (int kk = 0; kk < depth; kk += K_BLOCK) {
+				int kEnd = Math.min(kk + K_BLOCK, depth);
+				for (int ii = rowStart; ii < rowEnd; ii += M_BLOCK) {
+					int iEnd = Math.min(ii + M_BLOCK, rowEnd);
+					if (vectorised) {
+						multiplyTileVectorised(matrixA, rowStepA, colStepA, matrixB, matrixC, ii, iEnd, kk, kEnd, jj, jEnd);
+					} else {
+						multiplyTile(matrixA, rowStepA, colStepA, matrixB, matrixC, ii, iEnd, kk, kEnd, jj, jEnd);
+					}
+				}
+			}
+		}
+	}
+
+	private static void multiplyTile(FloatMatrix matrixA, int rowStepA, int colStepA, FloatMatrix matrixB, FloatMatrix matrixC,
+			int iStart, int iEnd, int kStart, int kEnd, int jStart, int jEnd) {
+		float[] a = matrixA.data;
+		float[] b = matrixB.data;
+		float[] c = matrixC.data;
+		int strideB = matrixB.stride;
+		int strideC = matrixC.stride;
+		int i = iStart;
+		// four rows at a time, each value of B is loaded once for all four
+		for (; i + 3 < iEnd; i += 4) {
+			int rowA = matrixA.offset + i * rowStepA;
+			int rowC0 = matrixC.offset + i * strideC;
+			int rowC1 = rowC0 + strideC;
+			int rowC2 = rowC1 + strideC;
+			int rowC3 = rowC2 + strideC;
+			for (int k = kStart; k < kEnd; k++) {
+				int positionA = rowA + k * colStepA;
+				float a0 = a[positionA];
+				float a1 = a[positionA + rowStepA];
+				float a2 = a[positionA + 2 * rowStepA];
+				float a3 = a[positionA + 3 * rowStepA];
+				int rowB = matrixB.offset + k * strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					float valueB = b[rowB + j];
+					c[rowC0 + j] += a0 * valueB;
+					c[rowC1 + j] += a1 * valueB;
+					c[rowC2 + j] += a2 * valueB;
+					c[rowC3 + j] += a3 * valueB;
+				}
+			}
+		}
+		// any rows left over
+		for (; i < iEnd; i++) {
+			int rowA = matrixA.offset + i * rowStepA;
+			int rowC = matrixC.offset + i * strideC;
+			for (int k = kStart; k < kEnd; k++) {
+				float valueA = a[rowA + k * colStepA];
+				int rowB = matrixB.offset + k * strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					c[rowC + j] += valueA * b[rowB + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * the same as multiplyTile() but laid out for the auto-vectoriser, see the Gemm class comment
+	 */
+	private static void multiplyTileVectorised(FloatMatrix matrixA, int rowStepA, int colStepA, FloatMatrix matrixB, FloatMatrix matrixC,
+			int iStart, int iEnd, int kStart, int kEnd, int jStart, int jEnd) {
+		float[] a = matrixA.data;
+		float[] b = matrixB.data;
+		float[] c = matrixC.data;
+		int strideB = matrixB.stride;
+		for (int i = iStart; i < iEnd; i++) {
+			int rowA = matrixA.offset + i * rowStepA;
+			int rowC = matrixC.offset + i * matrixC.stride;
+			int k = kStart;
+			for (; k + 3 < kEnd; k += 4) {
+				int positionA = rowA + k * colStepA;
+				float a0 = a[positionA];
+				float a1 = a[positionA + colStepA];
+				float a2 = a[positionA + 2 * colStepA];
+				float a3 = a[positionA + 3 * colStepA];
+				int rowB0 = matrixB.offset + k * strideB;
+				int rowB1 = rowB0 + strideB;
+				int rowB2 = rowB1 + strideB;
+				int rowB3 = rowB2 + strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					c[rowC + j] = c[rowC + j] + a0 * b[rowB0 + j] + a1 * b[rowB1 + j] + a2 * b[rowB2 + j] + a3 * b[rowB3 + j];
+				}
+			}
+			// any of k left over
+			for (; k < kEnd; k++) {
+				float valueA = a[rowA + k * colStepA];
+				int rowB = matrixB.offset + k * strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					c[rowC + j] += valueA * b[rowB + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * adds the row vector a times B to c, c must be B.cols long and is not cleared first
+	 * @param a B.rows values starting at aOffset
+	 * @param aOffset
+	 * @param matrixB
+	 * @param c
+	 * @param cOffset
+	 * @param vectorised
+	 */
+	static void multiplyAddRow(float[] a, int aOffset, FloatMatrix matrixB, float[] c, int cOffset, boolean vectorised) {
+		float[] b = matrixB.data;
+		int strideB = matrixB.stride;
+		int cols = matrixB.cols;
+		int k = 0;
+		if (vectorised) {
+			// four rows of B per pass so c is loaded and stored a quarter as often
+			for (; k + 3 < matrixB.rows; k += 4) {
+				float a0 = a[aOffset + k];
+				float a1 = a[aOffset + k + 1];
+				float a2 = a[aOffset + k + 2];
+				float a3 = a[aOffset + k + 3];
+				int rowB0 = matrixB.offset + k * strideB;
+				int rowB1 = rowB0 + strideB;
+				int rowB2 = rowB1 + strideB;
+				int rowB3 = rowB2 + strideB;
+				for (int j = 0; j < cols; j++) {
+					c[cOffset + j] = c[cOffset + j] + a0 * b[rowB0 + j] + a1 * b[rowB1 + j] + a2 * b[rowB2 + j] + a3 * b[rowB3 + j];
+				}
+			}
+		}
+		for (; k < matrixB.rows; k++) {
+			float valueA = a[aOffset + k];
+			int rowB = matrixB.offset + k * strideB;
+			for (int j = 0; j < cols; j++) {
+				c[cOffset + j] += valueA * b[rowB + j];
+			}
+		}
+	}
+
+	/**
+	 * adds A.B^T to part of C. Each element of C is the dot product of a row of A
+	 * and a row of B, both contiguous, worked out four rows of B at a time so each
+	 * value of A is loaded once for all four.
+	 */
+	private static void multiplyAddTransB(FloatMatrix matrixA, FloatMatrix matrixB, FloatMatrix matrixC,
+			int rowStart, int rowEnd, int colStart, int colEnd) {
+		float[] a = matrixA.data;
+		float[] b = matrixB.data;
+		float[] c = matrixC.data;
+		int strideB = matrixB.stride;
+		int depth = matrixA.cols;
+		for (int jj = colStart; jj < colEnd; jj += N_BLOCK) {
+			int jEnd = Math.min(jj + N_BLOCK, colEnd);
+			for (int kk = 0; kk < depth; kk += K_BLOCK) {
+				int kEnd = Math.min(kk + K_BLOCK, depth);
+				for (int i = rowStart; i < rowEnd; i++) {
+					int rowA = matrixA.offset + i * matrixA.stride;
+					int rowC = matrixC.offset + i * matrixC.stride;
+					int j = jj;
+					for (; j + 3 < jEnd; j += 4) {
+						int rowB0 = matrixB.offset + j * strideB;
+						int rowB1 = rowB0 + strideB;
+						int rowB2 = rowB1 + strideB;
+						int rowB3 = rowB2 + strideB;
+						float sum0 = c[rowC + j];
+						float sum1 = c[rowC + j + 1];
+						float sum2 = c[rowC + j + 2];
+						float sum3 = c[rowC + j + 3];
+						for (int k = kk; k < kEnd; k++) {
+							float valueA = a[rowA + k];
+							sum0 += valueA * b[rowB0 + k];
+							sum1 += valueA * b[rowB1 + k];
+							sum2 += valueA * b[rowB2 + k];
+							sum3 += valueA * b[rowB3 + k];
+						}
+						c[rowC + j] = sum0;
+						c[rowC + j + 1] = sum1;
+						c[rowC + j + 2] = sum2;
+						c[rowC + j + 3] = sum3;
+					}
+					// any columns left over
+					for (; j < jEnd; j++) {
+						int rowB = matrixB.offset + j * strideB;
+						float sum = c[rowC + j];
+						for (int k = kk; k < kEnd; k++) {
+							sum += a[rowA + k] * b[rowB + k];
+						}
+						c[rowC + j] = sum;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.Arrays;
+
+/**
+ * The single precision version of Matrix, laid out the same way in one
+ * contiguous float[]. Element (row, col) is stored at data[offset + row * stride + col].
+ * Half the size of a Matrix, so twice as many values fit in cache and in each
+ * SIMD register. Use fromMatrix() and toMatrix() to convert between the two.
+ */
+public final class FloatMatrix {
+	final float[] data;
+	final int offset;
+	final int rows;
+	final int cols;
+	final int stride;
+
+	/**
+	 * creates a new matrix with all values set to 0.0
+	 * @param rows
+	 * @param cols
+	 */
+	public FloatMatrix(int rows, int cols) {
+		this(new float[rows * cols], 0, rows, cols, cols);
+	}
+
+	/**
+	 * wraps part of an existing array, the array is not copied
+	 * @param data
+	 * @param offset the position in data of element (0, 0)
+	 * @param rows
+	 * @param cols
+	 * @param stride the distance in data between the start of one row and the next
+	 */
+	public FloatMatrix(float[] data, int offset, int rows, int cols, int stride) {
+		if (rows < 0 || cols < 0 || stride < cols || offset < 0
+				|| (rows > 0 && offset + (rows - 1) * stride + cols > data.length)) {
+			throw new IllegalArgumentException("Invalid matrix layout: " + rows + "x" + cols
+					+ ", offset " + offset + ", stride " + stride + ", data length " + data.length);
+		}
+		this.data = data;
+		this.offset = offset;
+		this.rows = rows;
+		this.cols = cols;
+		this.stride = stride;
+	}
+
+	/**
+	 * creates a new matrix holding the values of the double matrix rounded to float
+	 * @param matrix
+	 * @return
+	 */
+	public static FloatMatrix fromMatrix(Matrix matrix) {
+		FloatMatrix floatMatrix = new FloatMatrix(matrix.rows, matrix.cols);
+		for (int i = 0; i < matrix.rows; i++) {
+			int row = matrix.offset + i * matrix.stride;
+			int floatRow = i * floatMatrix.cols;
+			for (int j = 0; j < matrix.cols; j++) {
+				floatMatrix.data[floatRow + j] = (float) matrix.data[row + j];
+			}
+		}
+		return floatMatrix;
+	}
+
+	/**
+	 * creates a new matrix holding the values of the array rounded to float
+	 * @param array in the form double[rows][columns], all rows must be the same length
+	 * @return
+	 */
+	public static FloatMatrix fromArray(double[][] array) {
+		int rows = array.length;
+		int cols = rows == 0 ? 0 : array[0].length;
+		FloatMatrix matrix = new FloatMatrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				matrix.data[i * cols + j] = (float) array[i][j];
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * copies the values out into a new double matrix, this is exact
+	 * @return
+	 */
+	public Matrix toMatrix() {
+		Matrix matrix = new Matrix(rows, cols);
+		toMatrix(matrix);
+		return matrix;
+	}
+
+	/**
+	 * copies the values into an existing double matrix of the same size
+	 * @param matrix
+	 */
+	public void toMatrix(Matrix matrix) {
+		if (matrix.rows != rows || matrix.cols != cols) {
+			throw new IllegalArgumentException("Cannot copy a " + rows + "x" + cols + " matrix into a "
+					+ matrix.rows + "x" + matrix.cols + " one");
+		}
+		for (int i = 0; i < rows; i++) {
+			int row = offset + i * stride;
+			int doubleRow = matrix.offset + i * matrix.stride;
+			for (int j = 0; j < cols; j++) {
+				matrix.data[doubleRow + j] = data[row + j];
+			}
+		}
+	}
+
+	/**
+	 * copies the values out into a new array in the form double[rows][columns]
+	 * @return
+	 */
+	public double[][] toArray() {
+		double[][] array = new double[rows][cols];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				array[i][j] = data[offset + i * stride + j];
+			}
+		}
+		return array;
+	}
+
+	public float get(int row, int col) {
+		return data[offset + row * stride + col];
+	}
+
+	public void set(int row, int col, float value) {
+		data[offset + row * stride + col] = value;
+	}
+
+	/**
+	 * sets every value in the matrix
+	 * @param value
+	 */
+	public void fill(float value) {
+		if (isContiguous()) {
+			Arrays.fill(data, offset, offset + rows * cols, value);
+		} else {
+			for (int i = 0; i < rows; i++) {
+				Arrays.fill(data, offset + i * stride, offset + i * stride + cols, value);
+			}
+		}
+	}
+
+	/**
+	 * returns a new matrix with the same values, laid out contiguously
+	 * @return
+	 */
+	public FloatMatrix copy() {
+		FloatMatrix copy = new FloatMatrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			System.arraycopy(data, offset + i * stride, copy.data, i * cols, cols);
+		}
+		return copy;
+	}
+
+	/**
+	 * true if the rows follow on from each other with no gaps
+	 * @return
+	 */
+	public boolean isContiguous() {
+		return stride == cols || rows <= 1;
+	}
+
+	public boolean isSameShape(FloatMatrix matrix) {
+		return rows == matrix.rows && cols == matrix.cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * the backing array, shared with this matrix
+	 * @return
+	 */
+	public float[] getData() {
+		return data;
+	}
+}
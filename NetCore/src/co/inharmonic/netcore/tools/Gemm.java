@@ -0,0 +1,315 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Matrix multiply kernels used by MatrixOps.
+ *
+ * The loops run in i-k-j order so the innermost loop walks along rows of B and C,
+ * which are contiguous in a Matrix, rather than down the columns of B. The work
+ * is split into tiles of B (K_BLOCK rows by N_BLOCK columns, about 256KB) that
+ * stay in cache while a block of M_BLOCK rows of A is run across them, and four
+ * rows of C are updated together so each value read from B is used four times.
+ *
+ * A can also be read as its transpose by swapping its row and column steps, and
+ * A.B^T has its own kernel that takes dot products of rows of A with rows of B,
+ * four rows of B at a time. Neither needs a transposed copy.
+ *
+ * The vectorised tile kernel instead unrolls k by four and updates one row of C
+ * per pass with a single expression, c = c + a0*b0 + a1*b1 + a2*b2 + a3*b3.
+ * That gives HotSpot's auto-vectoriser one load and one store stream for C,
+ * so the j loop is compiled to SIMD instructions (AVX2/AVX-512 where available).
+ * Java adds left to right, so the sum order is unchanged.
+ *
+ * Tolerance: every element of C is still summed in increasing k order, exactly
+ * as the textbook i-j-k loop does, so the results are identical to it (0 ulp
+ * difference) rather than just close. That also holds for the transposed forms
+ * compared with multiplying by a transposed copy.
+ *
+ * A single row times a matrix (GEMV) has its own kernel with no tiling or
+ * threads, as the row and the result are small enough to stay in cache and
+ * the matrix is only read once. It sums in the same order as well.
+ *
+ * Large products are split across a ForkJoinPool by BlockTask. Each task owns a
+ * separate block of rows (or columns) of C and does the whole k sum for it, so
+ * the parallel results are identical to the sequential ones for any pool size.
+ *
+ * With MatrixOps.setSpecialised() on, the vectorised kernels are swapped for ones
+ * generated for the shape of the product, see ShapeKernels.
+ */
+final class Gemm {
+	static final int M_BLOCK = 64;
+	static final int K_BLOCK = 128;
+	static final int N_BLOCK = 256;
+
+	/**
+	 * which operand, if either, is read as its transpose
+	 */
+	enum Transpose {
+		NONE, A, B
+	}
+
+	private Gemm() {
+	}
+
+	/**
+	 * adds A.B to C, C must already be the right size and is not cleared first
+	 * @param matrixA
+	 * @param matrixB
+	 * @param matrixC
+	 */
+	static void multiplyAdd(Matrix matrixA, Matrix matrixB, Matrix matrixC) {
+		multiplyAdd(matrixA, matrixB, matrixC, Transpose.NONE, null);
+	}
+
+	/**
+	 * adds op(A).op(B) to C, splitting the work across the pool if it is big enough
+	 * @param matrixA
+	 * @param matrixB
+	 * @param matrixC
+	 * @param transpose which of A or B to read as its transpose
+	 * @param pool if null the multiply is done on the calling thread
+	 */
+	static void multiplyAdd(Matrix matrixA, Matrix matrixB, Matrix matrixC, Transpose transpose, ForkJoinPool pool) {
+		multiplyAdd(matrixA, matrixB, matrixC, transpose, MatrixOps.isVectorised(), pool);
+	}
+
+	/**
+	 * adds op(A).op(B) to C with the kernel given rather than the one MatrixOps is set to
+	 * @param matrixA
+	 * @param matrixB
+	 * @param matrixC
+	 * @param transpose which of A or B to read as its transpose
+	 * @param vectorised whether to use the tile kernel laid out for the auto-vectoriser
+	 * @param pool if null the multiply is done on the calling thread
+	 */
+	static void multiplyAdd(final Matrix matrixA, final Matrix matrixB, final Matrix matrixC,
+			final Transpose transpose, final boolean vectorised, ForkJoinPool pool) {
+		int depth = transpose == Transpose.A ? matrixA.rows : matrixA.cols;
+		if (!BlockTask.isSplit(matrixC.rows, matrixC.cols, depth, pool)) {
+			multiplyAdd(matrixA, matrixB, matrixC, transpose, vectorised, 0, matrixC.rows, 0, matrixC.cols);
+			return;
+		}
+		BlockTask.run(new BlockTask.Block() {
+			@Override
+			public void run(int rowStart, int rowEnd, int colStart, int colEnd) {
+				multiplyAdd(matrixA, matrixB, matrixC, transpose, vectorised, rowStart, rowEnd, colStart, colEnd);
+			}
+		}, matrixC.rows, matrixC.cols, depth, pool);
+	}
+
+	/**
+	 * adds op(A).op(B) to the part of C from rows rowStart to rowEnd and columns colStart to colEnd
+	 */
+	static void multiplyAdd(Matrix matrixA, Matrix matrixB, Matrix matrixC, Transpose transpose, boolean vectorised,
+			int rowStart, int rowEnd, int colStart, int colEnd) {
+		if (vectorised && MatrixOps.isSpecialised()
+				&& ShapeKernels.multiplyAdd(matrixA, matrixB, matrixC, transpose, rowStart, rowEnd, colStart, colEnd)) {
+			return;
+		}
+		if (transpose == Transpose.B) {
+			// the dot products are sums into a single value, which the auto-vectoriser
+			// won't reorder, so there is no separate vectorised form
+			multiplyAddTransB(matrixA, matrixB, matrixC, rowStart, rowEnd, colStart, colEnd);
+			return;
+		}
+		// element (i, k) of op(A) is at offset + i * rowStepA + k * colStepA
+		int rowStepA = transpose == Transpose.A ? 1 : matrixA.stride;
+		int colStepA = transpose == Transpose.A ? matrixA.stride : 1;
+		int depth = transpose == Transpose.A ? matrixA.rows : matrixA.cols;
+		for (int jj = colStart; jj < colEnd; jj += N_BLOCK) {
+			int jEnd = Math.min(jj + N_BLOCK, colEnd);
+			for (int kk = 0; kk < depth; kk += K_BLOCK) {
+				int kEnd = Math.min(kk + K_BLOCK, depth);
+				for (int ii = rowStart; ii < rowEnd; ii += M_BLOCK) {
+					int iEnd = Math.min(ii + M_BLOCK, rowEnd);
+					if (vectorised) {
+						multiplyTileVectorised(matrixA, rowStepA, colStepA, matrixB, matrixC, ii, iEnd, kk, kEnd, jj, jEnd);
+					} else {
+						multiplyTile(matrixA, rowStepA, colStepA, matrixB, matrixC, ii, iEnd, kk, kEnd, jj, jEnd);
+					}
+				}
+			}
+		}
+	}
+
+	private static void multiplyTile(Matrix matrixA, int rowStepA, int colStepA, Matrix matrixB, Matrix matrixC,
+			int iStart, int iEnd, int kStart, int kEnd, int jStart, int jEnd) {
+		double[] a = matrixA.data;
+		double[] b = matrixB.data;
+		double[] c = matrixC.data;
+		int strideB = matrixB.stride;
+		int strideC = matrixC.stride;
+		int i = iStart;
+		// four rows at a time, each value of B is loaded once for all four
+		for (; i + 3 < iEnd; i += 4) {
+			int rowA = matrixA.offset + i * rowStepA;
+			int rowC0 = matrixC.offset + i * strideC;
+			int rowC1 = rowC0 + strideC;
+			int rowC2 = rowC1 + strideC;
+			int rowC3 = rowC2 + strideC;
+			for (int k = kStart; k < kEnd; k++) {
+				int positionA = rowA + k * colStepA;
+				double a0 = a[positionA];
+				double a1 = a[positionA + rowStepA];
+				double a2 = a[positionA + 2 * rowStepA];
+				double a3 = a[positionA + 3 * rowStepA];
+				int rowB = matrixB.offset + k * strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					double valueB = b[rowB + j];
+					c[rowC0 + j] += a0 * valueB;
+					c[rowC1 + j] += a1 * valueB;
+					c[rowC2 + j] += a2 * valueB;
+					c[rowC3 + j] += a3 * valueB;
+				}
+			}
+		}
+		// any rows left over
+		for (; i < iEnd; i++) {
+			int rowA = matrixA.offset + i * rowStepA;
+			int rowC = matrixC.offset + i * strideC;
+			for (int k = kStart; k < kEnd; k++) {
+				double valueA = a[rowA + k * colStepA];
+				int rowB = matrixB.offset + k * strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					c[rowC + j] += valueA * b[rowB + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * the same as multiplyTile() but laid out for the auto-vectoriser, see the class comment
+	 */
+	private static void multiplyTileVectorised(Matrix matrixA, int rowStepA, int colStepA, Matrix matrixB, Matrix matrixC,
+			int iStart, int iEnd, int kStart, int kEnd, int jStart, int jEnd) {
+		double[] a = matrixA.data;
+		double[] b = matrixB.data;
+		double[] c = matrixC.data;
+		int strideB = matrixB.stride;
+		for (int i = iStart; i < iEnd; i++) {
+			int rowA = matrixA.offset + i * rowStepA;
+			int rowC = matrixC.offset + i * matrixC.stride;
+			int k = kStart;
+			for (; k + 3 < kEnd; k += 4) {
+				int positionA = rowA + k * colStepA;
+				double a0 = a[positionA];
+				double a1 = a[positionA + colStepA];
+				double a2 = a[positionA + 2 * colStepA];
+				double a3 = a[positionA + 3 * colStepA];
+				int rowB0 = matrixB.offset + k * strideB;
+				int rowB1 = rowB0 + strideB;
+				int rowB2 = rowB1 + strideB;
+				int rowB3 = rowB2 + strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					c[rowC + j] = c[rowC + j] + a0 * b[rowB0 + j] + a1 * b[rowB1 + j] + a2 * b[rowB2 + j] + a3 * b[rowB3 + j];
+				}
+			}
+			// any of k left over
+			for (; k < kEnd; k++) {
+				double valueA = a[rowA + k * colStepA];
+				int rowB = matrixB.offset + k * strideB;
+				for (int j = jStart; j < jEnd; j++) {
+					c[rowC + j] += valueA * b[rowB + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * adds the row vector a times B to c, c must be B.cols long and is not cleared first
+	 * @param a B.rows values starting at aOffset
+	 * @param aOffset
+	 * @param matrixB
+	 * @param c
+	 * @param cOffset
+	 * @param vectorised
+	 */
+	static void multiplyAddRow(double[] a, int aOffset, Matrix matrixB, double[] c, int cOffset, boolean vectorised) {
+		if (vectorised && MatrixOps.isSpecialised() && ShapeKernels.multiplyAddRow(a, aOffset, matrixB, c, cOffset)) {
+			return;
+		}
+		double[] b = matrixB.data;
+		int strideB = matrixB.stride;
+		int cols = matrixB.cols;
+		int k = 0;
+		if (vectorised) {
+			// four rows of B per pass so c is loaded and stored a quarter as often
+			for (; k + 3 < matrixB.rows; k += 4) {
+				double a0 = a[aOffset + k];
+				double a1 = a[aOffset + k + 1];
+				double a2 = a[aOffset + k + 2];
+				double a3 = a[aOffset + k + 3];
+				int rowB0 = matrixB.offset + k * strideB;
+				int rowB1 = rowB0 + strideB;
+				int rowB2 = rowB1 + strideB;
+				int rowB3 = rowB2 + strideB;
+				for (int j = 0; j < cols; j++) {
+					c[cOffset + j] = c[cOffset + j] + a0 * b[rowB0 + j] + a1 * b[rowB1 + j] + a2 * b[rowB2 + j] + a3 * b[rowB3 + j];
+				}
+			}
+		}
+		for (; k < matrixB.rows; k++) {
+			double valueA = a[aOffset + k];
+			int rowB = matrixB.offset + k * strideB;
+			for (int j = 0; j < cols; j++) {
+				c[cOffset + j] += valueA * b[rowB + j];
+			}
+		}
+	}
+
+	/**
+	 * adds A.B^T to part of C. Each element of C is the dot product of a row of A
+	 * and a row of B, both contiguous, worked out four rows of B at a time so each
+	 * value of A is loaded once for all four.
+	 */
+	private static void multiplyAddTransB(Matrix matrixA, Matrix matrixB, Matrix matrixC,
+			int rowStart, int rowEnd, int colStart, int colEnd) {
+		double[] a = matrixA.data;
+		double[] b = matrixB.data;
+		double[] c = matrixC.data;
+		int strideB = matrixB.stride;
+		int depth = matrixA.cols;
+		for (int jj = colStart; jj < colEnd; jj += N_BLOCK) {
+			int jEnd = Math.min(jj + N_BLOCK, colEnd);
+			for (int kk = 0; kk < depth; kk += K_BLOCK) {
+				int kEnd = Math.min(kk + K_BLOCK, depth);
+				for (int i = rowStart; i < rowEnd; i++) {
+					int rowA = matrixA.offset + i * matrixA.stride;
+					int rowC = matrixC.offset + i * matrixC.stride;
+					int j = jj;
+					for (; j + 3 < jEnd; j += 4) {
+						int rowB0 = matrixB.offset + j * strideB;
+						int rowB1 = rowB0 + strideB;
+						int rowB2 = rowB1 + strideB;
+						int rowB3 = rowB2 + strideB;
+						double sum0 = c[rowC + j];
+						double sum1 = c[rowC + j + 1];
+						double sum2 = c[rowC + j + 2];
+						double sum3 = c[rowC + j + 3];
+						for (int k = kk; k < kEnd; k++) {
+							double valueA = a[rowA + k];
+							sum0 += valueA * b[rowB0 + k];
+							sum1 += valueA * b[rowB1 + k];
+							sum2 += valueA * b[rowB2 + k];
+							sum3 += valueA * b[rowB3 + k];
+						}
+						c[rowC + j] = sum0;
+						c[rowC + j + 1] = sum1;
+						c[rowC + j + 2] = sum2;
+						c[rowC + j + 3] = sum3;
+					}
+					// any columns left over
+					for (; j < jEnd; j++) {
+						int rowB = matrixB.offset + j * strideB;
+						double sum = c[rowC + j];
+						for (int k = kk; k < kEnd; k++) {
+							sum += a[rowA + k] * b[rowB + k];
+						}
+						c[rowC + j] = sum;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.Arrays;
+
+/**
+ * A dense matrix held in one contiguous double[] in row-major order.
+ * Element (row, col) is stored at data[offset + row * stride + col], so a
+ * matrix can also be a view onto part of a larger one without copying.
+ * Use fromArray() and toArray() to convert to and from the double[rows][columns]
+ * form used elsewhere.
+ */
+public final class Matrix {
+	final double[] data;
+	final int offset;
+	final int rows;
+	final int cols;
+	final int stride;
+
+	/**
+	 * creates a new matrix with all values set to 0.0
+	 * @param rows
+	 * @param cols
+	 */
+	public Matrix(int rows, int cols) {
+		this(new double[rows * cols], 0, rows, cols, cols);
+	}
+
+	/**
+	 * wraps an existing row-major array, the array is not copied
+	 * @param rows
+	 * @param cols
+	 * @param data must be at least rows * cols long
+	 */
+	public Matrix(int rows, int cols, double[] data) {
+		this(data, 0, rows, cols, cols);
+	}
+
+	/**
+	 * wraps part of an existing array, the array is not copied
+	 * @param data
+	 * @param offset the position in data of element (0, 0)
+	 * @param rows
+	 * @param cols
+	 * @param stride the distance in data between the start of one row and the next
+	 */
+	public Matrix(double[] data, int offset, int rows, int cols, int stride) {
+		if (rows < 0 || cols < 0 || stride < cols || offset < 0
+				|| (rows > 0 && offset + (rows - 1) * stride + cols > data.length)) {
+			throw new IllegalArgumentException("Invalid matrix layout: " + rows + "x" + cols
+					+ ", offset " + offset + ", stride " + stride + ", data length " + data.length);
+		}
+		this.data = data;
+		this.offset = offset;
+		this.rows = rows;
+		this.cols = cols;
+		this.stride = stride;
+	}
+
+	/**
+	 * creates a new matrix holding a copy of the values in the array
+	 * @param array in the form double[rows][columns], all rows must be the same length
+	 * @return
+	 */
+	public static Matrix fromArray(double[][] array) {
+		int rows = array.length;
+		int cols = rows == 0 ? 0 : array[0].length;
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			System.arraycopy(array[i], 0, matrix.data, i * cols, cols);
+		}
+		return matrix;
+	}
+
+	/**
+	 * creates a new matrix with a single row holding a copy of the values in the array
+	 * @param row
+	 * @return
+	 */
+	public static Matrix fromRow(double[] row) {
+		return new Matrix(1, row.length, row.clone());
+	}
+
+	/**
+	 * copies the values out into a new array in the form double[rows][columns]
+	 * @return
+	 */
+	public double[][] toArray() {
+		double[][] array = new double[rows][cols];
+		for (int i = 0; i < rows; i++) {
+			System.arraycopy(data, offset + i * stride, array[i], 0, cols);
+		}
+		return array;
+	}
+
+	public double get(int row, int col) {
+		return data[offset + row * stride + col];
+	}
+
+	public void set(int row, int col, double value) {
+		data[offset + row * stride + col] = value;
+	}
+
+	/**
+	 * sets every value in the matrix
+	 * @param value
+	 */
+	public void fill(double value) {
+		if (isContiguous()) {
+			Arrays.fill(data, offset, offset + rows * cols, value);
+		} else {
+			for (int i = 0; i < rows; i++) {
+				Arrays.fill(data, offset + i * stride, offset + i * stride + cols, value);
+			}
+		}
+	}
+
+	/**
+	 * returns a copy of a single row
+	 * @param row
+	 * @return
+	 */
+	public double[] getRow(int row) {
+		double[] values = new double[cols];
+		System.arraycopy(data, offset + row * stride, values, 0, cols);
+		return values;
+	}
+
+	/**
+	 * returns a copy of a single column
+	 * @param col
+	 * @return
+	 */
+	public double[] getColumn(int col) {
+		double[] values = new double[rows];
+		for (int i = 0; i < rows; i++) {
+			values[i] = data[offset + i * stride + col];
+		}
+		return values;
+	}
+
+	/**
+	 * copies the values into a single row
+	 * @param row
+	 * @param values must be getCols() long
+	 */
+	public void setRow(int row, double[] values) {
+		System.arraycopy(values, 0, data, offset + row * stride, cols);
+	}
+
+	/**
+	 * copies the rows listed in rowIndices into the rows of the target, in that order,
+	 * e.g. to gather a mini-batch of shuffled rows
+	 * @param rowIndices
+	 * @param start the first entry of rowIndices to use
+	 * @param target gets target.getRows() rows, must have the same number of columns
+	 */
+	public void copyRowsTo(int[] rowIndices, int start, Matrix target) {
+		if (target.cols != cols || start < 0 || start + target.rows > rowIndices.length) {
+			throw new IndexOutOfBoundsException("Can't copy " + target.rows + " of " + rowIndices.length
+					+ " rows from " + start + " into a " + target.rows + "x" + target.cols + " matrix");
+		}
+		for (int i = 0; i < target.rows; i++) {
+			int row = rowIndices[start + i];
+			if (row < 0 || row >= rows) {
+				throw new IndexOutOfBoundsException("Row " + row + " is outside " + rows + "x" + cols);
+			}
+			System.arraycopy(data, offset + row * stride, target.data, target.offset + i * target.stride, cols);
+		}
+	}
+
+	/**
+	 * returns a matrix that shares this one's storage, changes to either are seen by both
+	 * @param rowStart
+	 * @param colStart
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public Matrix subMatrix(int rowStart, int colStart, int rows, int cols) {
+		if (rowStart < 0 || colStart < 0 || rowStart + rows > this.rows || colStart + cols > this.cols) {
+			throw new IndexOutOfBoundsException("Sub-matrix " + rows + "x" + cols + " at (" + rowStart + ", "
+					+ colStart + ") is outside " + this.rows + "x" + this.cols);
+		}
+		return new Matrix(data, offset + rowStart * stride + colStart, rows, cols, stride);
+	}
+
+	/**
+	 * returns a new matrix with the same values, laid out contiguously
+	 * @return
+	 */
+	public Matrix copy() {
+		Matrix copy = new Matrix(rows, cols);
+		if (isContiguous()) {
+			System.arraycopy(data, offset, copy.data, 0, rows * cols);
+		} else {
+			for (int i = 0; i < rows; i++) {
+				System.arraycopy(data, offset + i * stride, copy.data, i * cols, cols);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * true if the rows follow on from each other with no gaps, so the matrix
+	 * can be treated as a single run of rows * cols values starting at getOffset()
+	 * @return
+	 */
+	public boolean isContiguous() {
+		return stride == cols || rows <= 1;
+	}
+
+	public boolean isSameShape(Matrix matrix) {
+		return rows == matrix.rows && cols == matrix.cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * the backing array, shared with this matrix
+	 * @return
+	 */
+	public double[] getData() {
+		return data;
+	}
+}
@@ -0,0 +1,120 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The matrix operations a NeuralNetEngine needs while training and running, so the
+ * engine doing them can be swapped without changing the net.
+ * Implementations are found with ServiceLoader, listed in
+ * META-INF/services/co.inharmonic.netcore.tools.MatrixBackend, and chosen by name
+ * with MatrixBackends.get(), the netcore.backend system property or
+ * NeuralNetEngine.setBackend().
+ * The built in ones are "reference", "blocked", "parallel" and "vectorised".
+ * 
+ * Every method writes into a matrix given by the caller rather than allocating one.
+ * A result must not be one of the inputs unless the method says it can be.
+ * Implementations need a public no argument constructor.
+ */
+public interface MatrixBackend {
+
+	/**
+	 * the name the backend is chosen by
+	 * @return
+	 */
+	String getName();
+
+	/**
+	 * multiplies the two matrices into result
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB
+	 * @param pool threads the backend may use, or null for the calling thread only
+	 * @return result
+	 */
+	Matrix dot(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool);
+
+	/**
+	 * multiplies the transpose of matrixA by matrixB into result
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with, or if accumulate has added to it, matrixA^T.matrixB
+	 * @param accumulate if true result is not cleared first
+	 * @param pool threads the backend may use, or null for the calling thread only
+	 * @return result
+	 */
+	Matrix dotTransA(Matrix matrixA, Matrix matrixB, Matrix result, boolean accumulate, ForkJoinPool pool);
+
+	/**
+	 * multiplies matrixA by the transpose of matrixB into result
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB^T
+	 * @param pool threads the backend may use, or null for the calling thread only
+	 * @return result
+	 */
+	Matrix dotTransB(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool);
+
+	/**
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA + matrixB, can be one of the inputs
+	 * @return result
+	 */
+	Matrix add(Matrix matrixA, Matrix matrixB, Matrix result);
+
+	/**
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA - matrixB, can be one of the inputs
+	 * @return result
+	 */
+	Matrix subtract(Matrix matrixA, Matrix matrixB, Matrix result);
+
+	/**
+	 * @param matrix
+	 * @param scalar
+	 * @param result overwritten with matrix * scalar, can be the input
+	 * @return result
+	 */
+	Matrix scale(Matrix matrix, double scalar, Matrix result);
+
+	/**
+	 * adds matrixB times by the scalar to matrixA, matrixA is changed
+	 * @param matrixA
+	 * @param matrixB
+	 * @param scalar
+	 * @return matrixA
+	 */
+	Matrix addScaledInPlace(Matrix matrixA, Matrix matrixB, double scalar);
+
+	/**
+	 * applies 1/(1+e^-x) to every value, the matrix is changed
+	 * @param matrix
+	 * @return matrix
+	 */
+	Matrix sigmoid(Matrix matrix);
+
+	/**
+	 * times each error by the gradient of the sigmoid at the matching value of the layer,
+	 * error * layer * (1 - layer), the error matrix is changed to hold the delta
+	 * @param error
+	 * @param layer the output of sigmoid()
+	 * @return error
+	 */
+	Matrix sigmoidDelta(Matrix error, Matrix layer);
+
+	/**
+	 * adds up every value, in row order
+	 * @param matrix
+	 * @return
+	 */
+	double sum(Matrix matrix);
+
+	/**
+	 * adds up |a - b| for every value, in row order
+	 * @param matrixA
+	 * @param matrixB
+	 * @return
+	 */
+	double sumAbsoluteDifference(Matrix matrixA, Matrix matrixB);
+}
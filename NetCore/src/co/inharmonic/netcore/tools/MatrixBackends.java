@@ -0,0 +1,73 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Finds MatrixBackend implementations by name, see MatrixBackend.
+ * The default is the one named by -Dnetcore.backend=name, or "vectorised".
+ */
+public final class MatrixBackends {
+	public static final String PROPERTY = "netcore.backend";
+	public static final String DEFAULT_NAME = "vectorised";
+
+	private MatrixBackends() {
+	}
+
+	/**
+	 * returns a new instance of the backend with the given name, ignoring case
+	 * @param name
+	 * @return
+	 */
+	public static MatrixBackend get(String name) {
+		for (MatrixBackend backend : getAll()) {
+			if (backend.getName().equalsIgnoreCase(name)) {
+				return backend;
+			}
+		}
+		System.out.println("No matrix backend called \"" + name + "\", choose from " + getNames());
+		throw new IllegalArgumentException("Unknown matrix backend: " + name);
+	}
+
+	/**
+	 * returns the backend named by the netcore.backend system property, or the vectorised one
+	 * @return
+	 */
+	public static MatrixBackend getDefault() {
+		return get(System.getProperty(PROPERTY, DEFAULT_NAME));
+	}
+
+	/**
+	 * the names of every backend that can be chosen
+	 * @return
+	 */
+	public static List<String> getNames() {
+		List<String> names = new ArrayList<>();
+		for (MatrixBackend backend : getAll()) {
+			names.add(backend.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * new instances of every backend found by ServiceLoader, then any of the built
+	 * in ones that weren't found, e.g. if the services file has been left out of a jar
+	 */
+	private static List<MatrixBackend> getAll() {
+		List<MatrixBackend> backends = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for (MatrixBackend backend : ServiceLoader.load(MatrixBackend.class)) {
+			backends.add(backend);
+			names.add(backend.getName());
+		}
+		MatrixBackend[] builtIn = { new ReferenceBackend(), new BlockedBackend(),
+				new ParallelBackend(), new VectorisedBackend() };
+		for (MatrixBackend backend : builtIn) {
+			if (!names.contains(backend.getName())) {
+				backends.add(backend);
+			}
+		}
+		return backends;
+	}
+}
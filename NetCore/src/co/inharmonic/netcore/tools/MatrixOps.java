@@ -0,0 +1,1427 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Contains methods for performing operations on matrices
+ * Matrices are either a flat Matrix or in the form double[rows][columns],
+ * the double[][] methods convert to Matrix and back so prefer Matrix in loops
+ * @author Andrew Rogers
+ *
+ */
+public final class MatrixOps {
+	// the pool large products are split across when no pool is given, created when first needed
+	private static ForkJoinPool defaultPool;
+	private static boolean isDefaultPoolSet = false;
+	// the side of the largest square block transpose() copies directly, 16x16 doubles is 2KB
+	private static final int TRANSPOSE_BLOCK = 16;
+	// use the loops laid out for HotSpot's auto-vectoriser, on unless -Dnetcore.vectorised=false
+	private static volatile boolean isVectorised = !"false".equals(System.getProperty("netcore.vectorised"));
+	// use kernels generated for each shape, off unless -Dnetcore.specialised=true
+	private static volatile boolean isSpecialised = "true".equals(System.getProperty("netcore.specialised"));
+	
+	/**
+	 * switches between the vectorised kernels and the plain scalar loops. 
+	 * Both give identical results; the vectorised ones are written so the JIT
+	 * compiles their inner loops to SIMD instructions.
+	 * @param vectorised
+	 */
+	public static void setVectorised(boolean vectorised) {
+		isVectorised = vectorised;
+	}
+	
+	public static boolean isVectorised() {
+		return isVectorised;
+	}
+	
+	/**
+	 * switches the vectorised products over to kernels generated and compiled for
+	 * the shape of each product, see ShapeKernels. The results are identical.
+	 * The first product of each shape is slow while its kernel is compiled.
+	 * Needs a JDK, on a JRE the generic kernels are used.
+	 * @param specialised
+	 */
+	public static void setSpecialised(boolean specialised) {
+		isSpecialised = specialised;
+	}
+	
+	public static boolean isSpecialised() {
+		return isSpecialised;
+	}
+	
+	/**
+	 * sets the pool that dot() uses when no pool is given.
+	 * Pass null to always multiply on the calling thread.
+	 * If never set, a pool with one thread per processor is created when first needed.
+	 * @param pool
+	 */
+	public static synchronized void setDefaultPool(ForkJoinPool pool) {
+		defaultPool = pool;
+		isDefaultPoolSet = true;
+	}
+	
+	/**
+	 * @return the pool dot() uses when no pool is given, may be null
+	 */
+	public static synchronized ForkJoinPool getDefaultPool() {
+		if (!isDefaultPoolSet) {
+			defaultPool = Runtime.getRuntime().availableProcessors() > 1 ? new ForkJoinPool() : null;
+			isDefaultPoolSet = true;
+		}
+		return defaultPool;
+	}
+	
+	/**
+	 * multiplies the two matrices
+	 * for "divide", transpose matrixB before calling method
+	 * @param matrixA
+	 * @param matrixB
+	 * @return
+	 */
+	public static double[][] dot(double[][] matrixA, double[][] matrixB) {
+		return dot(Matrix.fromArray(matrixA), Matrix.fromArray(matrixB)).toArray();
+	}
+	
+	/**
+	 * multiplies the two matrices using the cache-blocked kernel in Gemm,
+	 * results are identical to the textbook i-j-k loop
+	 * for "divide", transpose matrixB before calling method
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA.matrixB
+	 */
+	public static Matrix dot(Matrix matrixA, Matrix matrixB) {
+		return dot(matrixA, matrixB, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies the two matrices, splitting large products across the pool.
+	 * Products under about a million multiply-adds are done on the calling thread.
+	 * The results are the same for any pool size.
+	 * @param matrixA
+	 * @param matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return a new matrix, matrixA.matrixB
+	 */
+	public static Matrix dot(Matrix matrixA, Matrix matrixB, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		// a new Matrix is already all 0.0 so the kernel can add straight into it
+		Matrix matrixC = new Matrix(matrixA.rows, matrixB.cols);
+		Gemm.multiplyAdd(matrixA, matrixB, matrixC, Gemm.Transpose.NONE, pool);
+		return matrixC;
+	}
+	
+	/**
+	 * multiplies the two matrices into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB
+	 * @return result
+	 */
+	public static Matrix dot(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return dot(matrixA, matrixB, result, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies the two matrices into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static Matrix dot(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.rows, matrixB.cols);
+		result.fill(0.0);
+		Gemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.NONE, pool);
+		return result;
+	}
+	
+	/**
+	 * multiplies the transpose of matrixA by matrixB without making a transposed copy of matrixA.
+	 * The result is the same as dot(t(matrixA), matrixB)
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA^T.matrixB
+	 */
+	public static Matrix dotTransA(Matrix matrixA, Matrix matrixB) {
+		return dotTransA(matrixA, matrixB, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies the transpose of matrixA by matrixB without making a transposed copy of matrixA.
+	 * The result is the same as dot(t(matrixA), matrixB, pool)
+	 * @param matrixA
+	 * @param matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return a new matrix, matrixA^T.matrixB
+	 */
+	public static Matrix dotTransA(Matrix matrixA, Matrix matrixB, ForkJoinPool pool) {
+		if (matrixA.rows != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		Matrix matrixC = new Matrix(matrixA.cols, matrixB.cols);
+		Gemm.multiplyAdd(matrixA, matrixB, matrixC, Gemm.Transpose.A, pool);
+		return matrixC;
+	}
+	
+	/**
+	 * multiplies the transpose of matrixA by matrixB into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA^T.matrixB
+	 * @return result
+	 */
+	public static Matrix dotTransA(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return dotTransA(matrixA, matrixB, result, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies the transpose of matrixA by matrixB into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA^T.matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static Matrix dotTransA(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		if (matrixA.rows != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.cols, matrixB.cols);
+		result.fill(0.0);
+		Gemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.A, pool);
+		return result;
+	}
+	
+	/**
+	 * adds the transpose of matrixA times matrixB to result, which is not cleared first.
+	 * Splitting the rows of A and B into blocks and adding each block's product into
+	 * the same result gives exactly the same values as one dotTransA() over all the rows.
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result has matrixA^T.matrixB added to it
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static Matrix addDotTransA(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		if (matrixA.rows != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.cols, matrixB.cols);
+		Gemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.A, pool);
+		return result;
+	}
+	
+	/**
+	 * multiplies matrixA by the transpose of matrixB without making a transposed copy of matrixB.
+	 * The result is the same as dot(matrixA, t(matrixB))
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA.matrixB^T
+	 */
+	public static Matrix dotTransB(Matrix matrixA, Matrix matrixB) {
+		return dotTransB(matrixA, matrixB, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies matrixA by the transpose of matrixB without making a transposed copy of matrixB.
+	 * The result is the same as dot(matrixA, t(matrixB), pool)
+	 * @param matrixA
+	 * @param matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return a new matrix, matrixA.matrixB^T
+	 */
+	public static Matrix dotTransB(Matrix matrixA, Matrix matrixB, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.cols) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		Matrix matrixC = new Matrix(matrixA.rows, matrixB.rows);
+		Gemm.multiplyAdd(matrixA, matrixB, matrixC, Gemm.Transpose.B, pool);
+		return matrixC;
+	}
+	
+	/**
+	 * multiplies matrixA by the transpose of matrixB into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB^T
+	 * @return result
+	 */
+	public static Matrix dotTransB(Matrix matrixA, Matrix matrixB, Matrix result) {
+		return dotTransB(matrixA, matrixB, result, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies matrixA by the transpose of matrixB into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB^T
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static Matrix dotTransB(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.cols) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.rows, matrixB.rows);
+		result.fill(0.0);
+		Gemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.B, pool);
+		return result;
+	}
+	
+	/**
+	 * multiplies the two matrices with the Strassen-Winograd method, which does less work
+	 * than dot() for big square-ish matrices (all sides well over a few hundred).
+	 * The results are close to dot() but not identical, see Strassen for the error bound.
+	 * Smaller matrices are multiplied exactly as dot() does.
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB, must not be either of the inputs
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static Matrix dotStrassen(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.rows, matrixB.cols);
+		Strassen.multiply(matrixA, matrixB, result, pool);
+		return result;
+	}
+	
+	/**
+	 * the same as dotStrassen(), but multiplying the transpose of matrixA, e.g. for the
+	 * weight changes X^T.delta. matrixA is transposed into a copy first, which is cheap
+	 * next to the product when it is big enough for Strassen to help.
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA^T.matrixB, must not be either of the inputs
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static Matrix dotTransAStrassen(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		if (matrixA.rows != matrixB.rows) {
+			reportCannotMultiply(transpose(matrixA), matrixB);
+		}
+		return dotStrassen(transpose(matrixA), matrixB, result, pool);
+	}
+	
+	/**
+	 * dotStrassen() splits the matrices into quadrants until a side is at or below this,
+	 * then multiplies them as dot() does. The error bound in Strassen depends on it.
+	 * @return the crossover side
+	 */
+	public static int getStrassenCrossover() {
+		return Strassen.CROSSOVER;
+	}
+	
+	/**
+	 * multiplies a single row of values by the matrix (GEMV) into result, without
+	 * allocating anything. The values are the same as dot() on a 1xN matrix.
+	 * @param vector matrix.getRows() values
+	 * @param matrix
+	 * @param result overwritten with vector.matrix, matrix.getCols() long, must not be vector
+	 * @return result
+	 */
+	public static double[] dot(double[] vector, Matrix matrix, double[] result) {
+		if (vector.length != matrix.rows || result.length != matrix.cols) {
+			throw new IllegalArgumentException("Cannot multiply a vector of " + vector.length + " by a "
+					+ matrix.rows + "x" + matrix.cols + " matrix into " + result.length + " values");
+		}
+		Arrays.fill(result, 0.0);
+		Gemm.multiplyAddRow(vector, 0, matrix, result, 0, isVectorised);
+		return result;
+	}
+	
+	/**
+	 * prints the matrices and throws, for when their sizes don't match
+	 * @param matrixA
+	 * @param matrixB
+	 */
+	private static void reportCannotMultiply(Matrix matrixA, Matrix matrixB) {
+		System.out.println("Matrices can't be multiplied");
+		printMatrix("A:", matrixA);
+		printMatrix("B:", matrixB);
+		throw new IllegalArgumentException("Matrices can't be multiplied: " + matrixA.rows + "x" + matrixA.cols
+				+ ", " + matrixB.rows + "x" + matrixB.cols);
+	}
+	
+	/**
+	 * same as transpose(), shortened name for convenience
+	 * @param array
+	 * @return
+	 */
+	public  static double[][] t(double[][] array) {
+		return transpose(array);
+	}
+	
+	/**
+	 * same as transpose(), shortened name for convenience
+	 * @param matrix
+	 * @return
+	 */
+	public static Matrix t(Matrix matrix) {
+		return transpose(matrix);
+	}
+	
+	/**
+	 * returns a new matrix, the transposition of the input
+	 * Inputs are unchanged.
+	 * @param array
+	 * @return
+	 */
+	public  static double[][] transpose(double[][] array) {
+		if (array == null || array.length == 0)// empty or unset array
+			return array;
+
+		return transpose(Matrix.fromArray(array)).toArray();
+	}
+	
+	/**
+	 * returns a new matrix, the transposition of the input
+	 * Inputs are unchanged.
+	 * @param matrix
+	 * @return
+	 */
+	public static Matrix transpose(Matrix matrix) {
+		return transpose(matrix, new Matrix(matrix.cols, matrix.rows));
+	}
+	
+	/**
+	 * writes the transposition of the input into result, which must not be the input.
+	 * The matrix is halved along its longer side until the pieces are small enough for
+	 * both the rows read and the columns written to stay in cache, whatever the cache size.
+	 * @param matrix
+	 * @param result
+	 * @return result
+	 */
+	public static Matrix transpose(Matrix matrix, Matrix result) {
+		checkResult(result, matrix.cols, matrix.rows);
+		transposeBlock(matrix, result, 0, matrix.rows, 0, matrix.cols);
+		return result;
+	}
+	
+	private static void transposeBlock(Matrix matrix, Matrix result, int rowStart, int rowEnd, int colStart, int colEnd) {
+		int rows = rowEnd - rowStart;
+		int cols = colEnd - colStart;
+		if (rows * cols > TRANSPOSE_BLOCK * TRANSPOSE_BLOCK && rows > 1 && cols > 1) {
+			if (rows >= cols) {
+				int middle = rowStart + rows / 2;
+				transposeBlock(matrix, result, rowStart, middle, colStart, colEnd);
+				transposeBlock(matrix, result, middle, rowEnd, colStart, colEnd);
+			} else {
+				int middle = colStart + cols / 2;
+				transposeBlock(matrix, result, rowStart, rowEnd, colStart, middle);
+				transposeBlock(matrix, result, rowStart, rowEnd, middle, colEnd);
+			}
+			return;
+		}
+		// small enough, or a single row or column which is just a strided copy
+		double[] source = matrix.data;
+		double[] target = result.data;
+		for (int x = rowStart; x < rowEnd; x++) {
+			int rowSource = matrix.offset + x * matrix.stride;
+			for (int y = colStart; y < colEnd; y++) {
+				target[result.offset + y * result.stride + x] = source[rowSource + y];
+			}
+		}
+	}
+	
+	/**
+	 * returns the transposition of a vector without copying it, sharing the input's values,
+	 * so changes to either show up in the other. Only a single row, or a single column with
+	 * no gaps between its values, can be viewed this way, anything else throws. To multiply
+	 * by the transpose of a matrix use dotTransA() or dotTransB(), or copy it with transpose().
+	 * @param matrix a single row, or a contiguous single column
+	 * @return a view of the same values
+	 */
+	public static Matrix transposeView(Matrix matrix) {
+		if (matrix.rows == 1) {
+			return new Matrix(matrix.data, matrix.offset, matrix.cols, 1, 1);
+		}
+		if (matrix.cols == 1 && matrix.stride == 1) {
+			return new Matrix(matrix.data, matrix.offset, 1, matrix.rows, matrix.rows);
+		}
+		throw new IllegalArgumentException("Only a row or a contiguous column can be transposed without copying: "
+				+ matrix.rows + "x" + matrix.cols + ", stride " + matrix.stride);
+	}
+	
+	/**
+	 * Adds the matrices together
+	 * the matrices must be the same size! Check this before calling
+	 * Inputs are unchanged.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return
+	 */
+	public  static double[][] add(double[][] matrixA, double[][] matrixB) {
+		return add(Matrix.fromArray(matrixA), Matrix.fromArray(matrixB)).toArray();
+	}
+	
+	/**
+	 * Adds the matrices together
+	 * the matrices must be the same size! Check this before calling
+	 * Inputs are unchanged.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return
+	 */
+	public static Matrix add(Matrix matrixA, Matrix matrixB) {
+		return add(matrixA, matrixB, new Matrix(matrixA.rows, matrixA.cols));
+	}
+	
+	/**
+	 * Adds the matrices together into result, which can be one of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA + matrixB
+	 * @return result
+	 */
+	public static Matrix add(Matrix matrixA, Matrix matrixB, Matrix result) {
+		checkSameShape("Matricis cannot be added:", matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixA.cols);
+		double[] a = matrixA.data;
+		double[] b = matrixB.data;
+		double[] c = result.data;
+		if (isFlat(matrixA, matrixB, result)) {
+			int size = matrixA.rows * matrixA.cols;
+			for (int j = 0; j < size; j++) {
+				c[result.offset + j] = a[matrixA.offset + j] + b[matrixB.offset + j];
+			}
+			return result;
+		}
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			int rowC = result.offset + i * result.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				c[rowC + j] = a[rowA + j] + b[rowB + j];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * adds matrixB to matrixA, matrixA is changed
+	 * @param matrixA
+	 * @param matrixB
+	 * @return matrixA
+	 */
+	public static Matrix addInPlace(Matrix matrixA, Matrix matrixB) {
+		return add(matrixA, matrixB, matrixA);
+	}
+	
+	/**
+	 * calculates matrixA minus matrixB
+	 * the matrices must be the same size! Check this before calling
+	 * Inputs are unchanged.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return matrixA - matrixB
+	 */
+	public static double[][] subtract(double[][] matrixA, double[][] matrixB) {
+		return subtract(Matrix.fromArray(matrixA), Matrix.fromArray(matrixB)).toArray();
+	}
+	
+	/**
+	 * calculates matrixA minus matrixB
+	 * the matrices must be the same size! Check this before calling
+	 * Inputs are unchanged.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return matrixA - matrixB
+	 */
+	public static Matrix subtract(Matrix matrixA, Matrix matrixB) {
+		return subtract(matrixA, matrixB, new Matrix(matrixA.rows, matrixA.cols));
+	}
+	
+	/**
+	 * calculates matrixA minus matrixB into result, which can be one of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA - matrixB
+	 * @return result
+	 */
+	public static Matrix subtract(Matrix matrixA, Matrix matrixB, Matrix result) {
+		checkSameShape("Matricis cannot be subtracted:", matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixA.cols);
+		double[] a = matrixA.data;
+		double[] b = matrixB.data;
+		double[] c = result.data;
+		if (isFlat(matrixA, matrixB, result)) {
+			int size = matrixA.rows * matrixA.cols;
+			for (int j = 0; j < size; j++) {
+				c[result.offset + j] = a[matrixA.offset + j] - b[matrixB.offset + j];
+			}
+			return result;
+		}
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			int rowC = result.offset + i * result.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				c[rowC + j] = a[rowA + j] - b[rowB + j];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * subtracts matrixB from matrixA, matrixA is changed
+	 * @param matrixA
+	 * @param matrixB
+	 * @return matrixA
+	 */
+	public static Matrix subtractInPlace(Matrix matrixA, Matrix matrixB) {
+		return subtract(matrixA, matrixB, matrixA);
+	}
+	
+	/**
+	 * returns a new matrix: the input times by the scalar.
+	 * Inputs are unchanged.
+	 * @param matrix
+	 * @param scalar
+	 * @return
+	 */
+	public static double[][] scale(double[][] matrix, double scalar) {
+		return scale(Matrix.fromArray(matrix), scalar).toArray();
+	}
+	
+	/**
+	 * returns a new matrix: the input times by the scalar.
+	 * Inputs are unchanged.
+	 * @param matrix
+	 * @param scalar
+	 * @return
+	 */
+	public static Matrix scale(Matrix matrix, double scalar) {
+		return scale(matrix, scalar, new Matrix(matrix.rows, matrix.cols));
+	}
+	
+	/**
+	 * writes the input times by the scalar into result, which can be the input
+	 * @param matrix
+	 * @param scalar
+	 * @param result
+	 * @return result
+	 */
+	public static Matrix scale(Matrix matrix, double scalar, Matrix result) {
+		checkResult(result, matrix.rows, matrix.cols);
+		double[] source = matrix.data;
+		double[] target = result.data;
+		if (isFlat(matrix, result)) {
+			int size = matrix.rows * matrix.cols;
+			for (int j = 0; j < size; j++) {
+				target[result.offset + j] = source[matrix.offset + j] * scalar;
+			}
+			return result;
+		}
+		for (int i = 0; i < matrix.rows; i++) {
+			int rowSource = matrix.offset + i * matrix.stride;
+			int rowTarget = result.offset + i * result.stride;
+			for (int j = 0; j < matrix.cols; j++) {
+				target[rowTarget + j] = source[rowSource + j] * scalar;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * times the matrix by the scalar, the matrix is changed
+	 * @param matrix
+	 * @param scalar
+	 * @return matrix
+	 */
+	public static Matrix scaleInPlace(Matrix matrix, double scalar) {
+		return scale(matrix, scalar, matrix);
+	}
+	
+	/**
+	 * adds matrixB times by the scalar to matrixA in one pass, matrixA is changed
+	 * @param matrixA
+	 * @param matrixB
+	 * @param scalar
+	 * @return matrixA
+	 */
+	public static Matrix addScaledInPlace(Matrix matrixA, Matrix matrixB, double scalar) {
+		checkSameShape("Matricis cannot be added:", matrixA, matrixB);
+		double[] a = matrixA.data;
+		double[] b = matrixB.data;
+		if (isFlat(matrixA, matrixB)) {
+			int size = matrixA.rows * matrixA.cols;
+			for (int j = 0; j < size; j++) {
+				a[matrixA.offset + j] += b[matrixB.offset + j] * scalar;
+			}
+			return matrixA;
+		}
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				a[rowA + j] += b[rowB + j] * scalar;
+			}
+		}
+		return matrixA;
+	}
+	
+	/**
+	 * true if the vectorised kernels are on and the matrices can be run through
+	 * as one long loop, which vectorises better than many short rows (e.g. Nx1)
+	 */
+	private static boolean isFlat(Matrix matrixA, Matrix matrixB) {
+		return isVectorised && matrixA.isContiguous() && matrixB.isContiguous();
+	}
+	
+	private static boolean isFlat(Matrix matrixA, Matrix matrixB, Matrix matrixC) {
+		return isFlat(matrixA, matrixB) && matrixC.isContiguous();
+	}
+	
+	/**
+	 * throws if the result matrix is not the given size
+	 * @param result
+	 * @param rows
+	 * @param cols
+	 */
+	private static void checkResult(Matrix result, int rows, int cols) {
+		if (result.rows != rows || result.cols != cols) {
+			throw new IllegalArgumentException("Result matrix is " + result.rows + "x" + result.cols
+					+ ", should be " + rows + "x" + cols);
+		}
+	}
+	
+	/**
+	 * prints the matrices and throws if they are not the same size
+	 * @param message
+	 * @param matrixA
+	 * @param matrixB
+	 */
+	private static void checkSameShape(String message, Matrix matrixA, Matrix matrixB) {
+		if (!matrixA.isSameShape(matrixB)) {
+			System.out.println(message);
+			printMatrix(matrixA);
+			printMatrix(matrixB);
+			throw new IllegalArgumentException(message + " " + matrixA.rows + "x" + matrixA.cols
+					+ ", " + matrixB.rows + "x" + matrixB.cols);
+		}
+	}
+	
+	// Sparse matrices **********************************************************
+	// These only do the work for the non-zero values. Each sum is still added up in the same
+	// order as the dense methods, so the results are the same, just without multiplying by zero.
+	
+	/**
+	 * the fraction of values in the matrix that are not zero, from 0.0 to 1.0.
+	 * Below about 0.3 the sparse methods are quicker than the dense ones.
+	 * @param matrix
+	 * @return
+	 */
+	public static double density(Matrix matrix) {
+		if (matrix.rows == 0 || matrix.cols == 0) {
+			return 0.0;
+		}
+		int nonZeros = 0;
+		for (int i = 0; i < matrix.rows; i++) {
+			int row = matrix.offset + i * matrix.stride;
+			for (int j = row; j < row + matrix.cols; j++) {
+				if (matrix.data[j] != 0.0) {
+					nonZeros++;
+				}
+			}
+		}
+		return (double) nonZeros / ((double) matrix.rows * matrix.cols);
+	}
+	
+	/**
+	 * multiplies a sparse matrix by a dense one
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA.matrixB
+	 */
+	public static Matrix dot(CsrMatrix matrixA, Matrix matrixB) {
+		return dot(matrixA, matrixB, new Matrix(matrixA.getRows(), matrixB.cols));
+	}
+	
+	/**
+	 * multiplies a sparse matrix by a dense one into result
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB
+	 * @return result
+	 */
+	public static Matrix dot(CsrMatrix matrixA, Matrix matrixB, Matrix result) {
+		if (matrixA.getCols() != matrixB.rows) {
+			reportCannotMultiply(matrixA.toDense(), matrixB);
+		}
+		checkResult(result, matrixA.getRows(), matrixB.cols);
+		int cols = matrixB.cols;
+		result.fill(0.0);
+		double[] b = matrixB.data;
+		double[] c = result.data;
+		for (int i = 0; i < matrixA.getRows(); i++) {
+			int rowC = result.offset + i * result.stride;
+			// add each non-zero value in row i of A times the matching row of B
+			for (int position = matrixA.rowStarts[i]; position < matrixA.rowStarts[i + 1]; position++) {
+				double valueA = matrixA.values[position];
+				int rowB = matrixB.offset + matrixA.columns[position] * matrixB.stride;
+				for (int j = 0; j < cols; j++) {
+					c[rowC + j] += valueA * b[rowB + j];
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * multiplies a dense matrix by a sparse one, e.g. by weights that have been pruned
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA.matrixB
+	 */
+	public static Matrix dot(Matrix matrixA, CscMatrix matrixB) {
+		if (matrixA.cols != matrixB.getRows()) {
+			reportCannotMultiply(matrixA, matrixB.toDense());
+		}
+		Matrix result = new Matrix(matrixA.rows, matrixB.getCols());
+		double[] a = matrixA.data;
+		double[] c = result.data;
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowC = i * result.cols;
+			for (int j = 0; j < matrixB.getCols(); j++) {
+				// only the rows of B with a value in column j
+				double sum = 0.0;
+				for (int position = matrixB.colStarts[j]; position < matrixB.colStarts[j + 1]; position++) {
+					sum += a[rowA + matrixB.rowIndices[position]] * matrixB.values[position];
+				}
+				c[rowC + j] = sum;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * multiplies the transpose of a sparse matrix by a dense one, without transposing it.
+	 * The same as dotTransA() on the dense matrix.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA^T.matrixB
+	 */
+	public static Matrix dotTransA(CscMatrix matrixA, Matrix matrixB) {
+		return dotTransA(matrixA, matrixB, new Matrix(matrixA.getCols(), matrixB.cols));
+	}
+	
+	/**
+	 * multiplies the transpose of a sparse matrix by a dense one into result, without transposing it
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA^T.matrixB
+	 * @return result
+	 */
+	public static Matrix dotTransA(CscMatrix matrixA, Matrix matrixB, Matrix result) {
+		if (matrixA.getRows() != matrixB.rows) {
+			reportCannotMultiply(transpose(matrixA.toDense()), matrixB);
+		}
+		checkResult(result, matrixA.getCols(), matrixB.cols);
+		int cols = matrixB.cols;
+		result.fill(0.0);
+		double[] b = matrixB.data;
+		double[] c = result.data;
+		for (int i = 0; i < matrixA.getCols(); i++) {
+			int rowC = result.offset + i * result.stride;
+			// column i of A is row i of its transpose
+			for (int position = matrixA.colStarts[i]; position < matrixA.colStarts[i + 1]; position++) {
+				double valueA = matrixA.values[position];
+				int rowB = matrixB.offset + matrixA.rowIndices[position] * matrixB.stride;
+				for (int j = 0; j < cols; j++) {
+					c[rowC + j] += valueA * b[rowB + j];
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * adds a sparse matrix to a dense one
+	 * Inputs are unchanged.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA + matrixB
+	 */
+	public static Matrix add(Matrix matrixA, CsrMatrix matrixB) {
+		checkSameShape("Matricis cannot be added:", matrixA, matrixB);
+		Matrix result = matrixA.copy();
+		for (int i = 0; i < result.rows; i++) {
+			for (int position = matrixB.rowStarts[i]; position < matrixB.rowStarts[i + 1]; position++) {
+				result.data[i * result.cols + matrixB.columns[position]] += matrixB.values[position];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * calculates a sparse matrix minus a dense one, e.g. one-hot training outputs minus the output layer
+	 * Inputs are unchanged.
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA - matrixB
+	 */
+	public static Matrix subtract(CsrMatrix matrixA, Matrix matrixB) {
+		return subtract(matrixA, matrixB, new Matrix(matrixB.rows, matrixB.cols));
+	}
+	
+	/**
+	 * calculates a sparse matrix minus a dense one into result
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA - matrixB, must not be matrixB
+	 * @return result
+	 */
+	public static Matrix subtract(CsrMatrix matrixA, Matrix matrixB, Matrix result) {
+		checkSameShape("Matricis cannot be subtracted:", matrixB, matrixA);
+		checkResult(result, matrixB.rows, matrixB.cols);
+		double[] b = matrixB.data;
+		double[] c = result.data;
+		for (int i = 0; i < matrixB.rows; i++) {
+			int rowB = matrixB.offset + i * matrixB.stride;
+			int rowC = result.offset + i * result.stride;
+			for (int j = 0; j < matrixB.cols; j++) {
+				c[rowC + j] = 0.0 - b[rowB + j];
+			}
+			for (int position = matrixA.rowStarts[i]; position < matrixA.rowStarts[i + 1]; position++) {
+				int j = matrixA.columns[position];
+				c[rowC + j] = matrixA.values[position] - b[rowB + j];
+			}
+		}
+		return result;
+	}
+	
+	private static void checkSameShape(String message, Matrix matrixA, CsrMatrix matrixB) {
+		if (matrixA.rows != matrixB.getRows() || matrixA.cols != matrixB.getCols()) {
+			checkSameShape(message, matrixA, matrixB.toDense());
+		}
+	}
+	
+	// Single precision ***********************************************************
+	// The same operations for FloatMatrix, see the double versions above.
+	
+	/**
+	 * multiplies the two matrices in float using the kernels in FloatGemm
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA.matrixB
+	 */
+	public static FloatMatrix dot(FloatMatrix matrixA, FloatMatrix matrixB) {
+		return dot(matrixA, matrixB, getDefaultPool());
+	}
+	
+	/**
+	 * multiplies the two matrices in float, splitting large products across the pool
+	 * @param matrixA
+	 * @param matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return a new matrix, matrixA.matrixB
+	 */
+	public static FloatMatrix dot(FloatMatrix matrixA, FloatMatrix matrixB, ForkJoinPool pool) {
+		return dot(matrixA, matrixB, new FloatMatrix(matrixA.rows, matrixB.cols), pool);
+	}
+	
+	/**
+	 * multiplies the two matrices in float into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static FloatMatrix dot(FloatMatrix matrixA, FloatMatrix matrixB, FloatMatrix result, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.rows, matrixB.cols);
+		result.fill(0.0f);
+		FloatGemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.NONE, pool);
+		return result;
+	}
+	
+	/**
+	 * multiplies the transpose of matrixA by matrixB in float without making a transposed copy
+	 * @param matrixA
+	 * @param matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return a new matrix, matrixA^T.matrixB
+	 */
+	public static FloatMatrix dotTransA(FloatMatrix matrixA, FloatMatrix matrixB, ForkJoinPool pool) {
+		return dotTransA(matrixA, matrixB, new FloatMatrix(matrixA.cols, matrixB.cols), pool);
+	}
+	
+	/**
+	 * multiplies the transpose of matrixA by matrixB in float into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA^T.matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static FloatMatrix dotTransA(FloatMatrix matrixA, FloatMatrix matrixB, FloatMatrix result, ForkJoinPool pool) {
+		if (matrixA.rows != matrixB.rows) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.cols, matrixB.cols);
+		result.fill(0.0f);
+		FloatGemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.A, pool);
+		return result;
+	}
+	
+	/**
+	 * multiplies matrixA by the transpose of matrixB in float without making a transposed copy
+	 * @param matrixA
+	 * @param matrixB
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return a new matrix, matrixA.matrixB^T
+	 */
+	public static FloatMatrix dotTransB(FloatMatrix matrixA, FloatMatrix matrixB, ForkJoinPool pool) {
+		return dotTransB(matrixA, matrixB, new FloatMatrix(matrixA.rows, matrixB.rows), pool);
+	}
+	
+	/**
+	 * multiplies matrixA by the transpose of matrixB in float into result, which must not be either of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA.matrixB^T
+	 * @param pool the pool to use, or null to multiply on the calling thread
+	 * @return result
+	 */
+	public static FloatMatrix dotTransB(FloatMatrix matrixA, FloatMatrix matrixB, FloatMatrix result, ForkJoinPool pool) {
+		if (matrixA.cols != matrixB.cols) {
+			reportCannotMultiply(matrixA, matrixB);
+		}
+		checkResult(result, matrixA.rows, matrixB.rows);
+		result.fill(0.0f);
+		FloatGemm.multiplyAdd(matrixA, matrixB, result, Gemm.Transpose.B, pool);
+		return result;
+	}
+	
+	/**
+	 * multiplies a single row of values by the matrix in float, without allocating anything
+	 * @param vector matrix.getRows() values
+	 * @param matrix
+	 * @param result overwritten with vector.matrix, matrix.getCols() long, must not be vector
+	 * @return result
+	 */
+	public static float[] dot(float[] vector, FloatMatrix matrix, float[] result) {
+		if (vector.length != matrix.rows || result.length != matrix.cols) {
+			throw new IllegalArgumentException("Cannot multiply a vector of " + vector.length + " by a "
+					+ matrix.rows + "x" + matrix.cols + " matrix into " + result.length + " values");
+		}
+		Arrays.fill(result, 0.0f);
+		FloatGemm.multiplyAddRow(vector, 0, matrix, result, 0, isVectorised);
+		return result;
+	}
+	
+	/**
+	 * calculates matrixA minus matrixB into result, which can be one of the inputs
+	 * @param matrixA
+	 * @param matrixB
+	 * @param result overwritten with matrixA - matrixB
+	 * @return result
+	 */
+	public static FloatMatrix subtract(FloatMatrix matrixA, FloatMatrix matrixB, FloatMatrix result) {
+		checkSameShape("Matricis cannot be subtracted:", matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixA.cols);
+		float[] a = matrixA.data;
+		float[] b = matrixB.data;
+		float[] c = result.data;
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			int rowC = result.offset + i * result.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				c[rowC + j] = a[rowA + j] - b[rowB + j];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * calculates matrixA minus matrixB
+	 * @param matrixA
+	 * @param matrixB
+	 * @return a new matrix, matrixA - matrixB
+	 */
+	public static FloatMatrix subtract(FloatMatrix matrixA, FloatMatrix matrixB) {
+		return subtract(matrixA, matrixB, new FloatMatrix(matrixA.rows, matrixA.cols));
+	}
+	
+	/**
+	 * adds matrixB times by the scalar to matrixA in one pass, matrixA is changed
+	 * @param matrixA
+	 * @param matrixB
+	 * @param scalar
+	 * @return matrixA
+	 */
+	public static FloatMatrix addScaledInPlace(FloatMatrix matrixA, FloatMatrix matrixB, float scalar) {
+		checkSameShape("Matricis cannot be added:", matrixA, matrixB);
+		float[] a = matrixA.data;
+		float[] b = matrixB.data;
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				a[rowA + j] += b[rowB + j] * scalar;
+			}
+		}
+		return matrixA;
+	}
+	
+	/**
+	 * adds up |a - b| for every value, in row order, in double
+	 * @param matrixA
+	 * @param matrixB
+	 * @return
+	 */
+	public static double sumAbsoluteDifference(FloatMatrix matrixA, FloatMatrix matrixB) {
+		checkSameShape("Matricis cannot be subtracted:", matrixA, matrixB);
+		float[] a = matrixA.data;
+		float[] b = matrixB.data;
+		double sum = 0.0;
+		for (int i = 0; i < matrixA.rows; i++) {
+			int rowA = matrixA.offset + i * matrixA.stride;
+			int rowB = matrixB.offset + i * matrixB.stride;
+			for (int j = 0; j < matrixA.cols; j++) {
+				sum += Math.abs(a[rowA + j] - b[rowB + j]);
+			}
+		}
+		return sum;
+	}
+	
+	private static void reportCannotMultiply(FloatMatrix matrixA, FloatMatrix matrixB) {
+		reportCannotMultiply(matrixA.toMatrix(), matrixB.toMatrix());
+	}
+	
+	private static void checkResult(FloatMatrix result, int rows, int cols) {
+		if (result.rows != rows || result.cols != cols) {
+			throw new IllegalArgumentException("Result matrix is " + result.rows + "x" + result.cols
+					+ ", should be " + rows + "x" + cols);
+		}
+	}
+	
+	private static void checkSameShape(String message, FloatMatrix matrixA, FloatMatrix matrixB) {
+		if (!matrixA.isSameShape(matrixB)) {
+			checkSameShape(message, matrixA.toMatrix(), matrixB.toMatrix());
+		}
+	}
+	
+	/**
+	 * prints an array in the form of a matrix
+	 * @param matrix
+	 */
+	public static void printMatrix(double[][] matrix) {
+		String output = "";
+		for (int i = 0; i < matrix.length; i++) {
+			for (int j = 0; j < matrix[0].length; j++) {
+				output += matrix[i][j] + " ";
+			}
+			output += "\n";
+		}
+		System.out.println(output);
+	}
+	
+	/**
+	 * prints a description followed by an array in the form of a matrix
+	 * @param tag
+	 * @param matrix
+	 */
+	public static void printMatrix(String tag, double[][] matrix) {
+		System.out.println(tag);
+		printMatrix(matrix);
+	}
+	
+	/**
+	 * prints a matrix
+	 * @param matrix
+	 */
+	public static void printMatrix(Matrix matrix) {
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < matrix.rows; i++) {
+			for (int j = 0; j < matrix.cols; j++) {
+				output.append(matrix.get(i, j)).append(' ');
+			}
+			output.append('\n');
+		}
+		System.out.println(output);
+	}
+	
+	/**
+	 * prints a description followed by a matrix
+	 * @param tag
+	 * @param matrix
+	 */
+	public static void printMatrix(String tag, Matrix matrix) {
+		System.out.println(tag);
+		printMatrix(matrix);
+	}
+	
+	/**
+	 * prints an array in the form of a matrix
+	 * @param matrix
+	 */
+	public static void printMatrixInts(int[][] matrix) {
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < matrix.length; i++) {
+			for (int j = 0; j < matrix[0].length; j++) {
+				output.append(matrix[i][j]).append(' ');
+			}
+			output.append('\n');
+		}
+		System.out.println(output);
+	}
+	
+	/**
+	 * prints a description followed by an array in the form of a matrix
+	 * @param tag
+	 * @param matrix
+	 */
+	public static void printMatrixInts(String tag, double[][] matrix) {
+		System.out.println(tag);
+		printMatrixInts(convertToInts(matrix));
+	}
+	
+	/**
+	 * prints a description followed by a matrix with the values out of 100
+	 * @param tag
+	 * @param matrix
+	 */
+	public static void printMatrixInts(String tag, Matrix matrix) {
+		System.out.println(tag);
+		printMatrixInts(convertToInts(matrix.toArray()));
+	}
+	
+	/**
+	 * slightly misleading title, multiplies the matrix by 100.0 first so outputs the values out of 100
+	 * @param matrixDouble
+	 * @return
+	 */
+	public static int[][] convertToInts(double[][] matrixDouble) {
+		int[][] matrixInts = new int[matrixDouble.length][matrixDouble[0].length];
+		for (int i = 0; i < matrixInts.length; i++) {
+			for (int j = 0; j < matrixInts[0].length; j++) {
+				matrixInts[i][j] = (int) (matrixDouble[i][j] * 100.0);
+			}
+		}
+		return matrixInts;
+	}
+	
+	/**
+	 * normalises the matrix for when the minimum value is 0.0
+	 * @param matrix
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @return the input matrix between the values of 0.0 and 1.0
+	 */
+	public static double[][] normalise(double[][] matrix, double maxValue) {
+		double[][] normalised = new double[matrix.length][matrix[0].length];
+		for (int i = 0; i < matrix.length; i++) {
+			for (int j = 0; j < matrix[0].length; j++) {
+				normalised[i][j] = matrix[i][j] / maxValue;
+			}
+		}
+		return normalised;
+	}
+	
+	/**
+	 * normalises the matrix
+	 * @param matrix a matrix with all the values between the minValue and maxValue
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @param minValue the minimum value the data can be in the input matrix
+	 * @return the input matrix between the values of 0.0 and 1.0
+	 */
+	public static double[][] normalise(double[][] matrix, double minValue, double maxValue) {
+		double[][] normalised = new double[matrix.length][matrix[0].length];
+		for (int i = 0; i < matrix.length; i++) {
+			for (int j = 0; j < matrix[0].length; j++) {
+				normalised[i][j] = (matrix[i][j] - minValue) / (maxValue - minValue);
+			}
+		}
+		return normalised;
+	}
+	
+	/**
+	 * Takes a matrix in the input range 0.0 to 0.1 and outputs a copy of the matrix
+	 * with all values normalised to the range minValue to MaxValue
+	 * @param matrix a matrix with all values between the values of 0.0 to 0.1
+	 * @param maxValue the maximum value the data can be in the output matrix
+	 * @param minValue the minimum value the data can be in the output matrix
+	 * @return the input matrix between the values of minValue and maxValue
+	 */
+	public static double[][] deNormalise(double[][] matrix, double minValue, double maxValue) {
+		double[][] deNormalised = new double[matrix.length][matrix[0].length];
+		for (int i = 0; i < matrix.length; i++) {
+			for (int j = 0; j < matrix[0].length; j++) {
+				deNormalised[i][j] = (matrix[i][j] * (maxValue - minValue)) + minValue;
+			}
+		}
+		return deNormalised;
+	}
+	
+	/**
+	 * normalises the matrix for when the minimum value is 0.0
+	 * @param matrix
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @return the input matrix between the values of 0.0 and 1.0
+	 */
+	public static Matrix normalise(Matrix matrix, double maxValue) {
+		return normalise(matrix, maxValue, new Matrix(matrix.rows, matrix.cols));
+	}
+	
+	/**
+	 * normalises the matrix for when the minimum value is 0.0 into result, which can be the input
+	 * @param matrix
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @param result overwritten with the input matrix between the values of 0.0 and 1.0
+	 * @return result
+	 */
+	public static Matrix normalise(Matrix matrix, double maxValue, Matrix result) {
+		checkResult(result, matrix.rows, matrix.cols);
+		for (int i = 0; i < matrix.rows; i++) {
+			int rowSource = matrix.offset + i * matrix.stride;
+			int rowTarget = result.offset + i * result.stride;
+			for (int j = 0; j < matrix.cols; j++) {
+				result.data[rowTarget + j] = matrix.data[rowSource + j] / maxValue;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * normalises the matrix
+	 * @param matrix a matrix with all the values between the minValue and maxValue
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @param minValue the minimum value the data can be in the input matrix
+	 * @return the input matrix between the values of 0.0 and 1.0
+	 */
+	public static Matrix normalise(Matrix matrix, double minValue, double maxValue) {
+		return normalise(matrix, minValue, maxValue, new Matrix(matrix.rows, matrix.cols));
+	}
+	
+	/**
+	 * normalises the matrix into result, which can be the input
+	 * @param matrix a matrix with all the values between the minValue and maxValue
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @param minValue the minimum value the data can be in the input matrix
+	 * @param result overwritten with the input matrix between the values of 0.0 and 1.0
+	 * @return result
+	 */
+	public static Matrix normalise(Matrix matrix, double minValue, double maxValue, Matrix result) {
+		checkResult(result, matrix.rows, matrix.cols);
+		for (int i = 0; i < matrix.rows; i++) {
+			int rowSource = matrix.offset + i * matrix.stride;
+			int rowTarget = result.offset + i * result.stride;
+			for (int j = 0; j < matrix.cols; j++) {
+				result.data[rowTarget + j] = (matrix.data[rowSource + j] - minValue) / (maxValue - minValue);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Takes a matrix in the input range 0.0 to 0.1 and outputs a copy of the matrix
+	 * with all values normalised to the range minValue to MaxValue
+	 * @param matrix a matrix with all values between the values of 0.0 to 0.1
+	 * @param maxValue the maximum value the data can be in the output matrix
+	 * @param minValue the minimum value the data can be in the output matrix
+	 * @return the input matrix between the values of minValue and maxValue
+	 */
+	public static Matrix deNormalise(Matrix matrix, double minValue, double maxValue) {
+		return deNormalise(matrix, minValue, maxValue, new Matrix(matrix.rows, matrix.cols));
+	}
+	
+	/**
+	 * Takes a matrix in the input range 0.0 to 0.1 and writes it into result, which can be the input,
+	 * with all values normalised to the range minValue to MaxValue
+	 * @param matrix a matrix with all values between the values of 0.0 to 0.1
+	 * @param maxValue the maximum value the data can be in the output matrix
+	 * @param minValue the minimum value the data can be in the output matrix
+	 * @param result overwritten with the input matrix between the values of minValue and maxValue
+	 * @return result
+	 */
+	public static Matrix deNormalise(Matrix matrix, double minValue, double maxValue, Matrix result) {
+		checkResult(result, matrix.rows, matrix.cols);
+		for (int i = 0; i < matrix.rows; i++) {
+			int rowSource = matrix.offset + i * matrix.stride;
+			int rowTarget = result.offset + i * result.stride;
+			for (int j = 0; j < matrix.cols; j++) {
+				result.data[rowTarget + j] = (matrix.data[rowSource + j] * (maxValue - minValue)) + minValue;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * divides every value in the off-heap matrix by maxValue, the matrix is changed
+	 * @param matrix
+	 * @param maxValue
+	 * @return matrix
+	 */
+	public static OffHeapMatrix normalise(OffHeapMatrix matrix, double maxValue) {
+		double[] row = new double[matrix.getCols()];
+		for (int i = 0; i < matrix.getRows(); i++) {
+			matrix.getRow(i, row);
+			for (int j = 0; j < row.length; j++) {
+				row[j] = row[j] / maxValue;
+			}
+			matrix.setRow(i, row);
+		}
+		return matrix;
+	}
+	
+	/**
+	 * normalises the matrix for when the minimum value is 0.0
+	 * @param matrix
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @return the input matrix between the values of 0.0 and 1.0
+	 */
+	public static double[] normalise(double[] matrix, double maxValue) {
+		double[] normalised = new double[matrix.length];
+		for (int i = 0; i < matrix.length; i++) {
+			normalised[i] = matrix[i] / maxValue;
+		}
+		return normalised;
+	}
+	
+	/**
+	 * normalises the matrix
+	 * @param matrix a matrix with all the values between the minValue and maxValue
+	 * @param maxValue the maximum value the data can be in the input matrix
+	 * @param minValue the minimum value the data can be in the input matrix
+	 * @return the input matrix between the values of 0.0 and 1.0
+	 */
+	public static double[] normalise(double[] matrix, double minValue, double maxValue) {
+		double[] normalised = new double[matrix.length];
+		for (int i = 0; i < matrix.length; i++) {
+			normalised[i] = (matrix[i] - minValue) / (maxValue - minValue);
+		}
+		return normalised;
+	}
+	
+	/**
+	 * Takes a matrix in the input range 0.0 to 0.1 and outputs a copy of the matrix
+	 * with all values normalised to the range minValue to MaxValue
+	 * @param matrix a matrix with all values between the values of 0.0 to 0.1
+	 * @param maxValue the maximum value the data can be in the output matrix
+	 * @param minValue the minimum value the data can be in the output matrix
+	 * @return the input matrix between the values of minValue and maxValue
+	 */
+	public static double[] deNormalise(double[] matrix, double minValue, double maxValue) {
+		double[] normalised = new double[matrix.length];
+		for (int i = 0; i < matrix.length; i++) {
+			normalised[i] = (matrix[i] * (maxValue - minValue)) + minValue;
+		}
+		return normalised;
+	}
+}
@@ -0,0 +1,99 @@
+package co.inharmonic.netcore.tools;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Owns a set of OffHeapMatrix, stored in direct buffers outside the Java heap.
+ * Everything allocated from an arena is freed together when it is closed, so use
+ * it in a try-with-resources block or call close() once training is finished:
+ * 
+ * try (OffHeapArena arena = new OffHeapArena()) {
+ *     net.setTrainingData(trainingData, arena);
+ *     net.trainNet(true);
+ * }
+ * 
+ * The memory is given back straight away where the JVM allows it, otherwise it is
+ * left for the garbage collector. A matrix can't be used after its arena is closed.
+ * Allocating is thread safe but closing is not, don't close an arena while another
+ * thread is still using its matrices.
+ */
+public final class OffHeapArena implements Closeable {
+	private final ArrayList<OffHeapMatrix> matrices = new ArrayList<>();
+	private long bytesAllocated = 0;
+	private boolean isClosed = false;
+
+	/**
+	 * allocates a new matrix with all values set to 0.0
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public synchronized OffHeapMatrix allocate(int rows, int cols) {
+		if (isClosed) {
+			throw new IllegalStateException("Off-heap arena has been closed");
+		}
+		OffHeapMatrix matrix = new OffHeapMatrix(rows, cols);
+		matrices.add(matrix);
+		bytesAllocated += (long) rows * cols * 8;
+		return matrix;
+	}
+
+	/**
+	 * the total size of the matrices allocated so far, in bytes
+	 * @return
+	 */
+	public synchronized long getBytesAllocated() {
+		return bytesAllocated;
+	}
+
+	/**
+	 * frees every matrix allocated from this arena
+	 */
+	@Override
+	public synchronized void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		for (OffHeapMatrix matrix : matrices) {
+			for (ByteBuffer buffer : matrix.free()) {
+				free(buffer);
+			}
+		}
+		matrices.clear();
+	}
+
+	/**
+	 * gives the memory of a direct buffer back to the OS. There is no public way to
+	 * do this so the JDK's own cleaner is called, if that isn't possible the buffer
+	 * is freed when it is garbage collected instead.
+	 * @param buffer
+	 */
+	private static void free(ByteBuffer buffer) {
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// not available, try the Java 7 and 8 way below
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// leave it to the garbage collector
+		}
+	}
+}
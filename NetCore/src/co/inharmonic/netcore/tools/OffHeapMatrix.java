@@ -0,0 +1,180 @@
+package co.inharmonic.netcore.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * A dense matrix stored outside the Java heap, for training data too big to keep
+ * as a Matrix. The values are in row-major order in direct buffers of up to 1GB
+ * each, so the whole matrix can be many GB. Allocate one from an OffHeapArena,
+ * which also frees it.
+ * 
+ * The kernels in MatrixOps work on blocks of rows at a time: copyRowsTo() copies a
+ * block into a Matrix on the heap, small enough to stay in cache, and the usual
+ * kernels are run on that.
+ */
+public final class OffHeapMatrix {
+	// the largest buffer to allocate in one go, direct buffers are limited to 2GB
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+	private final int rows;
+	private final int cols;
+	private final int rowsPerChunk;
+	private ByteBuffer[] buffers; // kept so the arena can free them
+	private DoubleBuffer[] chunks; // null once freed
+
+	OffHeapMatrix(int rows, int cols) {
+		if (rows < 0 || cols < 0 || (long) cols * 8 > MAX_CHUNK_BYTES) {
+			throw new IllegalArgumentException("Invalid off-heap matrix size: " + rows + "x" + cols);
+		}
+		this.rows = rows;
+		this.cols = cols;
+		this.rowsPerChunk = cols == 0 ? Math.max(rows, 1) : MAX_CHUNK_BYTES / (cols * 8);
+		int chunkCount = (rows + rowsPerChunk - 1) / rowsPerChunk;
+		buffers = new ByteBuffer[chunkCount];
+		chunks = new DoubleBuffer[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			int chunkRows = Math.min(rowsPerChunk, rows - i * rowsPerChunk);
+			// a new direct buffer is already all 0.0
+			buffers[i] = ByteBuffer.allocateDirect(chunkRows * cols * 8).order(ByteOrder.nativeOrder());
+			chunks[i] = buffers[i].asDoubleBuffer();
+		}
+	}
+
+	public double get(int row, int col) {
+		return chunk(row).get(position(row) + col);
+	}
+
+	public void set(int row, int col, double value) {
+		chunk(row).put(position(row) + col, value);
+	}
+
+	/**
+	 * copies a single row into values
+	 * @param row
+	 * @param values must be at least getCols() long
+	 */
+	public void getRow(int row, double[] values) {
+		DoubleBuffer view = chunk(row).duplicate();
+		view.position(position(row));
+		view.get(values, 0, cols);
+	}
+
+	/**
+	 * copies the values into a single row
+	 * @param row
+	 * @param values must be at least getCols() long
+	 */
+	public void setRow(int row, double[] values) {
+		DoubleBuffer view = chunk(row).duplicate();
+		view.position(position(row));
+		view.put(values, 0, cols);
+	}
+
+	/**
+	 * copies target.getRows() rows, starting at rowStart, into the target
+	 * @param rowStart
+	 * @param target must have the same number of columns
+	 */
+	public void copyRowsTo(int rowStart, Matrix target) {
+		checkBlock(rowStart, target);
+		for (int i = 0; i < target.rows; i++) {
+			copyRow(rowStart + i, target.data, target.offset + i * target.stride);
+		}
+	}
+
+	/**
+	 * copies the rows listed in rowIndices into the rows of the target, in that order,
+	 * e.g. to gather a mini-batch of shuffled rows
+	 * @param rowIndices
+	 * @param start the first entry of rowIndices to use
+	 * @param target gets target.getRows() rows, must have the same number of columns
+	 */
+	public void copyRowsTo(int[] rowIndices, int start, Matrix target) {
+		if (target.cols != cols || start < 0 || start + target.rows > rowIndices.length) {
+			throw new IndexOutOfBoundsException("Can't copy " + target.rows + " of " + rowIndices.length
+					+ " rows from " + start + " into a " + target.rows + "x" + target.cols + " matrix");
+		}
+		for (int i = 0; i < target.rows; i++) {
+			int row = rowIndices[start + i];
+			if (row < 0 || row >= rows) {
+				throw new IndexOutOfBoundsException("Row " + row + " is outside " + rows + "x" + cols);
+			}
+			copyRow(row, target.data, target.offset + i * target.stride);
+		}
+	}
+
+	/**
+	 * copies a row with absolute gets rather than through a duplicate view, so the
+	 * copies made every training step don't allocate and several threads can read at once
+	 */
+	private void copyRow(int row, double[] values, int offset) {
+		DoubleBuffer chunk = chunk(row);
+		int position = position(row);
+		for (int j = 0; j < cols; j++) {
+			values[offset + j] = chunk.get(position + j);
+		}
+	}
+
+	/**
+	 * copies all the rows of the source into this matrix, starting at rowStart
+	 * @param source must have the same number of columns
+	 * @param rowStart
+	 */
+	public void copyRowsFrom(Matrix source, int rowStart) {
+		checkBlock(rowStart, source);
+		DoubleBuffer view = null;
+		int chunkIndex = -1;
+		for (int i = 0; i < source.rows; i++) {
+			int row = rowStart + i;
+			if (row / rowsPerChunk != chunkIndex) {
+				view = chunk(row).duplicate();
+				chunkIndex = row / rowsPerChunk;
+			}
+			view.position(position(row));
+			view.put(source.data, source.offset + i * source.stride, cols);
+		}
+	}
+
+	private void checkBlock(int rowStart, Matrix block) {
+		if (block.cols != cols || rowStart < 0 || rowStart + block.rows > rows) {
+			throw new IndexOutOfBoundsException("Block of " + block.rows + "x" + block.cols + " at row "
+					+ rowStart + " is outside " + rows + "x" + cols);
+		}
+	}
+
+	private DoubleBuffer chunk(int row) {
+		if (chunks == null) {
+			throw new IllegalStateException("Off-heap matrix has been freed");
+		}
+		return chunks[row / rowsPerChunk];
+	}
+
+	private int position(int row) {
+		return (row % rowsPerChunk) * cols;
+	}
+
+	/**
+	 * stops the matrix being used and hands back its buffers, called by the arena
+	 * @return
+	 */
+	ByteBuffer[] free() {
+		ByteBuffer[] freed = buffers;
+		buffers = new ByteBuffer[0];
+		chunks = null;
+		return freed;
+	}
+
+	public boolean isFreed() {
+		return chunks == null;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+}
@@ -0,0 +1,20 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The same as BlockedBackend but large products are split across the pool.
+ * The results are the same for any pool size.
+ */
+public class ParallelBackend extends BlockedBackend {
+
+	@Override
+	public String getName() {
+		return "parallel";
+	}
+
+	@Override
+	void multiplyAdd(Matrix matrixA, Matrix matrixB, Matrix matrixC, Gemm.Transpose transpose, ForkJoinPool pool) {
+		Gemm.multiplyAdd(matrixA, matrixB, matrixC, transpose, false, pool);
+	}
+}
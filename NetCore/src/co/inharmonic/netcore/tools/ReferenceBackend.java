@@ -0,0 +1,169 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The textbook loops, one value at a time on the calling thread. Slow, but simple
+ * enough to check the other backends against. The products sum in increasing k
+ * order like the other backends, so training gives exactly the same weights.
+ */
+public class ReferenceBackend implements MatrixBackend {
+
+	@Override
+	public String getName() {
+		return "reference";
+	}
+
+	@Override
+	public Matrix dot(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		checkShape(matrixA.cols == matrixB.rows, matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixB.cols);
+		for (int i = 0; i < result.rows; i++) {
+			for (int j = 0; j < result.cols; j++) {
+				double sum = 0.0;
+				for (int k = 0; k < matrixA.cols; k++) {
+					sum += matrixA.get(i, k) * matrixB.get(k, j);
+				}
+				result.set(i, j, sum);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Matrix dotTransA(Matrix matrixA, Matrix matrixB, Matrix result, boolean accumulate, ForkJoinPool pool) {
+		checkShape(matrixA.rows == matrixB.rows, matrixA, matrixB);
+		checkResult(result, matrixA.cols, matrixB.cols);
+		for (int i = 0; i < result.rows; i++) {
+			for (int j = 0; j < result.cols; j++) {
+				double sum = accumulate ? result.get(i, j) : 0.0;
+				for (int k = 0; k < matrixA.rows; k++) {
+					sum += matrixA.get(k, i) * matrixB.get(k, j);
+				}
+				result.set(i, j, sum);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Matrix dotTransB(Matrix matrixA, Matrix matrixB, Matrix result, ForkJoinPool pool) {
+		checkShape(matrixA.cols == matrixB.cols, matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixB.rows);
+		for (int i = 0; i < result.rows; i++) {
+			for (int j = 0; j < result.cols; j++) {
+				double sum = 0.0;
+				for (int k = 0; k < matrixA.cols; k++) {
+					sum += matrixA.get(i, k) * matrixB.get(j, k);
+				}
+				result.set(i, j, sum);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Matrix add(Matrix matrixA, Matrix matrixB, Matrix result) {
+		checkShape(matrixA.isSameShape(matrixB), matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixA.cols);
+		for (int i = 0; i < matrixA.rows; i++) {
+			for (int j = 0; j < matrixA.cols; j++) {
+				result.set(i, j, matrixA.get(i, j) + matrixB.get(i, j));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Matrix subtract(Matrix matrixA, Matrix matrixB, Matrix result) {
+		checkShape(matrixA.isSameShape(matrixB), matrixA, matrixB);
+		checkResult(result, matrixA.rows, matrixA.cols);
+		for (int i = 0; i < matrixA.rows; i++) {
+			for (int j = 0; j < matrixA.cols; j++) {
+				result.set(i, j, matrixA.get(i, j) - matrixB.get(i, j));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Matrix scale(Matrix matrix, double scalar, Matrix result) {
+		checkResult(result, matrix.rows, matrix.cols);
+		for (int i = 0; i < matrix.rows; i++) {
+			for (int j = 0; j < matrix.cols; j++) {
+				result.set(i, j, matrix.get(i, j) * scalar);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Matrix addScaledInPlace(Matrix matrixA, Matrix matrixB, double scalar) {
+		checkShape(matrixA.isSameShape(matrixB), matrixA, matrixB);
+		for (int i = 0; i < matrixA.rows; i++) {
+			for (int j = 0; j < matrixA.cols; j++) {
+				matrixA.set(i, j, matrixA.get(i, j) + matrixB.get(i, j) * scalar);
+			}
+		}
+		return matrixA;
+	}
+
+	@Override
+	public Matrix sigmoid(Matrix matrix) {
+		for (int i = 0; i < matrix.rows; i++) {
+			for (int j = 0; j < matrix.cols; j++) {
+				matrix.set(i, j, 1.0 / (1.0 + Math.exp(-matrix.get(i, j))));
+			}
+		}
+		return matrix;
+	}
+
+	@Override
+	public Matrix sigmoidDelta(Matrix error, Matrix layer) {
+		checkShape(error.isSameShape(layer), error, layer);
+		for (int i = 0; i < error.rows; i++) {
+			for (int j = 0; j < error.cols; j++) {
+				double value = layer.get(i, j);
+				error.set(i, j, error.get(i, j) * (value * (1.0 - value)));
+			}
+		}
+		return error;
+	}
+
+	@Override
+	public double sum(Matrix matrix) {
+		double sum = 0.0;
+		for (int i = 0; i < matrix.rows; i++) {
+			for (int j = 0; j < matrix.cols; j++) {
+				sum += matrix.get(i, j);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double sumAbsoluteDifference(Matrix matrixA, Matrix matrixB) {
+		checkShape(matrixA.isSameShape(matrixB), matrixA, matrixB);
+		double sum = 0.0;
+		for (int i = 0; i < matrixA.rows; i++) {
+			for (int j = 0; j < matrixA.cols; j++) {
+				sum += Math.abs(matrixA.get(i, j) - matrixB.get(i, j));
+			}
+		}
+		return sum;
+	}
+
+	static void checkShape(boolean isValid, Matrix matrixA, Matrix matrixB) {
+		if (!isValid) {
+			throw new IllegalArgumentException("Matrices don't fit together: " + matrixA.rows + "x" + matrixA.cols
+					+ ", " + matrixB.rows + "x" + matrixB.cols);
+		}
+	}
+
+	static void checkResult(Matrix result, int rows, int cols) {
+		if (result.rows != rows || result.cols != cols) {
+			throw new IllegalArgumentException("Result matrix is " + result.rows + "x" + result.cols
+					+ ", should be " + rows + "x" + cols);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Strassen-Winograd matrix multiply, used by MatrixOps.dotStrassen().
+ *
+ * Each level splits A, B and C into quadrants and makes C from 7 half-size
+ * products and 15 additions rather than 8 products, so the work is about
+ * n^2.81 rather than n^3. Below CROSSOVER the extra additions cost more than
+ * the product they save, so the quadrants are multiplied by the blocked
+ * kernels in Gemm (and split across the pool there). An odd row or column is
+ * peeled off and added with Gemm, so any shape works, but it only helps when
+ * all three sides are well above CROSSOVER.
+ *
+ * Tolerance: unlike Gemm the sums are not done in k order, so the results are
+ * close to, not identical to, the plain product. For n x n matrices and
+ * recursion down to size n0 the error bound for Winograd's variant
+ * (Higham, Accuracy and Stability of Numerical Algorithms, 2nd ed., 23.2.2) is
+ *
+ *   max|C - C'| <= ((n / n0)^log2(18) * (n0^2 + 6 * n0) - 6 * n) * u * max|A| * max|B|
+ *
+ * where u = 2^-53 is the double unit roundoff. That grows faster than the
+ * n * u * sum|A||B| bound of the plain product and holds for the largest
+ * element rather than each one, so small values in C can lose more relative
+ * accuracy. co.inharmonic.netcore.testing.StrassenErrorCheck compares it with
+ * the plain product against this bound.
+ */
+final class Strassen {
+	// sides at or below this are multiplied with Gemm
+	static final int CROSSOVER = 256;
+
+	private Strassen() {
+	}
+
+	/**
+	 * sets C to A.B, C must already be the right size and must not share storage with A or B
+	 * @param matrixA
+	 * @param matrixB
+	 * @param matrixC
+	 * @param pool used by the Gemm products at the bottom of the recursion, may be null
+	 */
+	static void multiply(Matrix matrixA, Matrix matrixB, Matrix matrixC, ForkJoinPool pool) {
+		int m = matrixA.rows;
+		int k = matrixA.cols;
+		int n = matrixB.cols;
+		if (m <= CROSSOVER || k <= CROSSOVER || n <= CROSSOVER) {
+			matrixC.fill(0.0);
+			Gemm.multiplyAdd(matrixA, matrixB, matrixC, Gemm.Transpose.NONE, pool);
+			return;
+		}
+		// the even part is split into quadrants, any odd last row or column is added after
+		int m2 = m & ~1;
+		int k2 = k & ~1;
+		int n2 = n & ~1;
+		multiplyEven(matrixA.subMatrix(0, 0, m2, k2), matrixB.subMatrix(0, 0, k2, n2),
+				matrixC.subMatrix(0, 0, m2, n2), pool);
+		if (k2 < k) {
+			Gemm.multiplyAdd(matrixA.subMatrix(0, k2, m2, 1), matrixB.subMatrix(k2, 0, 1, n2),
+					matrixC.subMatrix(0, 0, m2, n2), Gemm.Transpose.NONE, pool);
+		}
+		if (n2 < n) {
+			Matrix lastColumn = matrixC.subMatrix(0, n2, m2, 1);
+			lastColumn.fill(0.0);
+			Gemm.multiplyAdd(matrixA.subMatrix(0, 0, m2, k), matrixB.subMatrix(0, n2, k, 1),
+					lastColumn, Gemm.Transpose.NONE, pool);
+		}
+		if (m2 < m) {
+			Matrix lastRow = matrixC.subMatrix(m2, 0, 1, n);
+			lastRow.fill(0.0);
+			Gemm.multiplyAdd(matrixA.subMatrix(m2, 0, 1, k), matrixB, lastRow, Gemm.Transpose.NONE, pool);
+		}
+	}
+
+	/**
+	 * one level of Winograd's variant, all the sides must be even.
+	 * The 7 products and 15 additions are ordered so that only two quarter-size
+	 * input temporaries (S, T) and three output ones (P, Q, R) are needed.
+	 */
+	private static void multiplyEven(Matrix matrixA, Matrix matrixB, Matrix matrixC, ForkJoinPool pool) {
+		int m = matrixA.rows / 2;
+		int k = matrixA.cols / 2;
+		int n = matrixB.cols / 2;
+		Matrix a11 = matrixA.subMatrix(0, 0, m, k);
+		Matrix a12 = matrixA.subMatrix(0, k, m, k);
+		Matrix a21 = matrixA.subMatrix(m, 0, m, k);
+		Matrix a22 = matrixA.subMatrix(m, k, m, k);
+		Matrix b11 = matrixB.subMatrix(0, 0, k, n);
+		Matrix b12 = matrixB.subMatrix(0, n, k, n);
+		Matrix b21 = matrixB.subMatrix(k, 0, k, n);
+		Matrix b22 = matrixB.subMatrix(k, n, k, n);
+		Matrix c11 = matrixC.subMatrix(0, 0, m, n);
+		Matrix c12 = matrixC.subMatrix(0, n, m, n);
+		Matrix c21 = matrixC.subMatrix(m, 0, m, n);
+		Matrix c22 = matrixC.subMatrix(m, n, m, n);
+		Matrix s = new Matrix(m, k);
+		Matrix t = new Matrix(k, n);
+		Matrix p = new Matrix(m, n);
+		Matrix q = new Matrix(m, n);
+		Matrix r = new Matrix(m, n);
+
+		// M1 = A11.B11, C11 = M1 + M2
+		multiply(a11, b11, p, pool);
+		multiply(a12, b21, c11, pool);
+		MatrixOps.addInPlace(c11, p);
+		// S1 = A21 + A22, T1 = B12 - B11, M5 = S1.T1
+		MatrixOps.add(a21, a22, s);
+		MatrixOps.subtract(b12, b11, t);
+		multiply(s, t, r, pool);
+		// S2 = S1 - A11, T2 = B22 - T1, M6 = S2.T2, U2 = M1 + M6
+		MatrixOps.subtract(s, a11, s);
+		MatrixOps.subtract(b22, t, t);
+		multiply(s, t, q, pool);
+		MatrixOps.addInPlace(p, q);
+		// S4 = A12 - S2, M3 = S4.B22, C12 = U2 + M5 + M3
+		MatrixOps.subtract(a12, s, s);
+		multiply(s, b22, q, pool);
+		MatrixOps.add(p, r, c12);
+		MatrixOps.addInPlace(c12, q);
+		// T4 = T2 - B21, M4 = A22.T4, held in C21 for now
+		MatrixOps.subtract(t, b21, t);
+		multiply(a22, t, c21, pool);
+		// S3 = A11 - A21, T3 = B22 - B12, M7 = S3.T3, U3 = U2 + M7
+		MatrixOps.subtract(a11, a21, s);
+		MatrixOps.subtract(b22, b12, t);
+		multiply(s, t, q, pool);
+		MatrixOps.addInPlace(p, q);
+		// C21 = U3 - M4, C22 = U3 + M5
+		MatrixOps.subtract(p, c21, c21);
+		MatrixOps.add(p, r, c22);
+	}
+}
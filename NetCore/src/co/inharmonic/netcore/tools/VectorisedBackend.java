@@ -0,0 +1,20 @@
+package co.inharmonic.netcore.tools;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The same as ParallelBackend but with the tile kernel laid out for HotSpot's
+ * auto-vectoriser, see Gemm. This is what MatrixOps does by default.
+ */
+public class VectorisedBackend extends ParallelBackend {
+
+	@Override
+	public String getName() {
+		return "vectorised";
+	}
+
+	@Override
+	void multiplyAdd(Matrix matrixA, Matrix matrixB, Matrix matrixC, Gemm.Transpose transpose, ForkJoinPool pool) {
+		Gemm.multiplyAdd(matrixA, matrixB, matrixC, transpose, true, pool);
+	}
+}